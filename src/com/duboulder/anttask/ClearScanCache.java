@@ -0,0 +1,43 @@
+package com.duboulder.anttask;
+
+import java.io.File;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+
+/**
+ * Invalidate the build&apos;s scan cache (see ScanCache) after
+ * files have been created or deleted.<br/>
+ * <br/>
+ * Attributes:<br/>
+ * <div style="padding-left:24pt;">
+ *    dir - String<br/>
+ *        &nbsp;&nbsp;The changed directory tree. When it is not set,<br/>
+ *        &nbsp;&nbsp;the whole cache is cleared.
+ * </div>
+ */
+public class ClearScanCache extends Task {
+	private File			_dir;
+
+	public ClearScanCache () {
+	}
+
+	public File getDir () { return _dir; }
+	public void setDir (File dir) {
+		if (dir == null)
+			throw new BuildException (
+				"dir must not be null"
+			);
+		_dir = dir;
+	}
+
+	@Override
+	public void execute() throws BuildException {
+		ScanCache cache = ScanCache.Get (getProject ());
+		if (_dir == null) {
+			cache.clear ();
+			return;
+		}
+		int n = cache.invalidate (_dir);
+		log (n + " cached scans removed", org.apache.tools.ant.Project.MSG_VERBOSE);
+	}
+}
@@ -1,22 +1,44 @@
 package com.duboulder.anttask;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.tools.ant.BuildException;
-import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Project;
 import org.apache.tools.ant.util.FileNameMapper;
 import org.apache.tools.ant.types.Mapper;
 import org.apache.tools.ant.taskdefs.MatchingTask;
 
 /**
  * Display the files matching the includes/excludes. They
- * are sent to the log using INFO<br/>
+ * are sent to the log using INFO, or written to the output
+ * file when it is set<br/>
  * <br/>
  * Attributes:<br/>
  * <div style="padding-left:24pt;">
  *    prefix - String<br/>
  *        &nbsp;&nbsp;The text to prepend to each line before logging it<br/>
  *    basedir - String<br/>
- *        &nbsp;&nbsp;The root directory for the implicit file set
+ *        &nbsp;&nbsp;The root directory for the implicit file set<br/>
+ *    usecache - boolean<br/>
+ *        &nbsp;&nbsp;When true, the scan result is taken from or added to<br/>
+ *        &nbsp;&nbsp;the build&apos;s scan cache (see ScanCache, default false)<br/>
+ *    threads - int (default 1)<br/>
+ *        &nbsp;&nbsp;When greater than 1, the tree is walked by<br/>
+ *        &nbsp;&nbsp;that many threads (see ParallelDirWalker) and the files<br/>
+ *        &nbsp;&nbsp;are listed in sorted order as they are found. File sets<br/>
+ *        &nbsp;&nbsp;with selectors always use the normal directory scanner.<br/>
+ *    output - String<br/>
+ *        &nbsp;&nbsp;The file the lines are written to instead of the log<br/>
+ *    timings - boolean<br/>
+ *        &nbsp;&nbsp;When true, the listing time, file count and output<br/>
+ *        &nbsp;&nbsp;size are logged (see TaskTimings, default false)<br/>
+ *    timingsfile - String<br/>
+ *        &nbsp;&nbsp;Optional JSON file for the timings (turns timings on)
  * </div>
  * <br/>
  * Contained elements:<br/>
@@ -33,9 +55,16 @@ public class DirList extends MatchingTask {
 	private String			_linePrefix;
 	private File			_baseDir;
 	private FileNameMapper	_mapper;
+	private boolean			_useCache;
+	private int				_threads;
+	private File			_outputFile;
+	private boolean			_timingsEnabled;
+	private File			_timingsFile;
+	private int				_listed;		// files listed by execute
 
 	public DirList () {
 		_linePrefix = "";
+		_threads = 1;
 	}
 
 	public String getPrefix () { return _linePrefix; }
@@ -53,6 +82,25 @@ public class DirList extends MatchingTask {
 		_baseDir = baseDir;
 	}
 
+	public boolean getUseCache () { return _useCache; }
+	public void setUseCache (boolean f) { _useCache = f; }
+
+	public int getThreads () { return _threads; }
+	public void setThreads (int n) {
+		if (n < 1)
+			throw new BuildException ("threads must be >= 1");
+		_threads = n;
+	}
+
+	public File getOutput () { return _outputFile; }
+	public void setOutput (File f) { _outputFile = f; }
+
+	public boolean getTimings () { return _timingsEnabled; }
+	public void setTimings (boolean f) { _timingsEnabled = f; }
+
+	public File getTimingsFile () { return _timingsFile; }
+	public void setTimingsFile (File f) { _timingsFile = f; }
+
 	// it appears jdk 6 is pickier about overload matching - so use the redundant
 	// versions to try and guarantee a match
 	/**
@@ -71,24 +119,120 @@ public class DirList extends MatchingTask {
 
 	@Override
 	public void execute() throws BuildException {
-		DirectoryScanner dirScan = getDirectoryScanner (_baseDir);
-		for (String relPath : dirScan.getIncludedFiles()) {
-			// Log the absolute input path that most tasks
-			// will use when using a file set.
-			log (_linePrefix + _baseDir + "/" + relPath);
-			
-			// If a mapper was defined, then show the results
-			// of the mapping
-			if (_mapper != null) {
-				String[] mNames = _mapper.mapFileName (
-						_baseDir + "/" + relPath
-				);
-				String mName = "<unmatched by mapper>";
-				if (mNames != null && mNames.length > 0)
-					mName = mNames[0];
-
-				log (_linePrefix + "    --> " + mName);
+		TaskTimings timings = null;
+		if (_timingsEnabled || _timingsFile != null)
+			timings = new TaskTimings ("DirList");
+		long start = System.nanoTime ();
+		_listed = 0;
+
+		Writer out = null;
+		try {
+			if (_outputFile != null)
+				out = new BufferedWriter (new FileWriter (_outputFile), 65536);
+
+			String[] files = null;
+			ScanCache cache = null;
+			String key = null;
+			if (_useCache && _baseDir != null) {
+				cache = ScanCache.Get (getProject ());
+				key = ScanCache.Key (_baseDir, fileset, getProject ());
+				if (key != null)
+					files = cache.getIncludedFiles (key);
+			}
+
+			if (files == null && _threads > 1 && _baseDir != null && !fileset.hasSelectors ())
+				zzWalk (out, cache, key);
+			else {
+				if (files == null)
+					files = zzIncludedFiles ();
+				for (String relPath : files)
+					zzList (relPath, out);
+			}
+
+			if (out != null) {
+				out.close ();
+				out = null;
+			}
+		}
+		catch (IOException e) {
+			throw new BuildException (
+				"Error writing '" + _outputFile + "'", e
+			);
+		}
+		finally {
+			try { if (out != null) out.close (); } catch (Exception e1) {};
+		}
+
+		if (timings != null) {
+			timings.add (
+				String.valueOf (_baseDir), _listed, System.nanoTime () - start, 0,
+				0, (_outputFile == null ? 0 : _outputFile.length ()), true
+			);
+			timings.report (this, 0, _timingsFile);
+		}
+	}
+
+	// List the files found by the parallel walker as they arrive,
+	// also collecting them for the scan cache when it is used
+	private void zzWalk (final Writer out, ScanCache cache, String key)
+		throws IOException
+	{
+		final List<String> found = (key == null ? null : new ArrayList<String> ());
+		ParallelDirWalker walker = ParallelDirWalker.ForFileSet (
+			_baseDir, fileset, getProject ()
+		);
+		walker.walk (_threads, new ParallelDirWalker.Visitor () {
+			@Override
+			public void visit (String relPath) throws IOException {
+				if (found != null) found.add (relPath);
+				zzList (relPath, out);
 			}
+		});
+
+		for (String dir : walker.getUnreadableDirs ())
+			log ("Directory '" + dir + "' can't be read", Project.MSG_WARN);
+		if (found != null)
+			cache.putIncludedFiles (key, _baseDir, found.toArray (new String[found.size ()]));
+	}
+
+	private void zzList (String relPath, Writer out) throws IOException {
+		_listed++;
+		// Log the absolute input path that most tasks
+		// will use when using a file set.
+		zzLine (_linePrefix + _baseDir + "/" + relPath, out);
+		
+		// If a mapper was defined, then show the results
+		// of the mapping
+		if (_mapper != null) {
+			String[] mNames = _mapper.mapFileName (
+					_baseDir + "/" + relPath
+			);
+			String mName = "<unmatched by mapper>";
+			if (mNames != null && mNames.length > 0)
+				mName = mNames[0];
+
+			zzLine (_linePrefix + "    --> " + mName, out);
+		}
+	}
+
+	private void zzLine (String line, Writer out) throws IOException {
+		if (out == null) {
+			log (line);
+			return;
+		}
+		out.write (line);
+		out.write (System.getProperty ("line.separator"));
+	}
+
+	// Scan with the directory scanner, adding the result to the
+	// build's scan cache when it is used
+	private String[] zzIncludedFiles () {
+		String[] files = getDirectoryScanner (_baseDir).getIncludedFiles ();
+		if (_useCache && _baseDir != null) {
+			String key = ScanCache.Key (_baseDir, fileset, getProject ());
+			if (key != null)
+				ScanCache.Get (getProject ()).putIncludedFiles (key, _baseDir, files);
 		}
+		return files;
 	}
 }
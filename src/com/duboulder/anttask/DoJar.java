@@ -34,6 +34,17 @@ import org.apache.tools.ant.Project;
  *      Whether the output file should be appended to.
  *      If output has been specified the default is true,
  *      otherwise the default is false.
+ *   worker - boolean (Optional, default false)
+ *      When true, the jar is run by a reusable worker vm
+ *      (see JarBase)
+ *   streamoutput - boolean (Optional, default false)
+ *      When true, the task starts the jar&apos;s vm and writes
+ *      its output itself (see JarBase)
+ *   timings - boolean (Optional, default false)
+ *      When true, a summary of the execution time, the estimated
+ *      vm start-up time and the bytes read and written is logged
+ *   timingsfile - File (Optional)
+ *      A JSON file for the timings (turns timings on)
  *
  * Contained Elements:
  *   <mapper .../> or its variants (Optional)
@@ -59,6 +70,17 @@ public class DoJar extends JarBase {
 
 	@Override
 	public void execute() throws BuildException {
+		zStartTimings ("DoJar");
+		try {
+			zzExecute ();
+		}
+		finally {
+			zCloseOutputs ();
+			zReportTimings ();
+		}
+	}
+
+	private void zzExecute () throws BuildException {
 		zCheckSrcDir ();
 		String[] files = zGetSrcFiles ();
 
@@ -93,9 +115,11 @@ public class DoJar extends JarBase {
 		String srcAbsPath = _srcDir.getAbsolutePath ();
 		String fSep = Character.toString (File.separatorChar);
 		int skipCount = 0;
+		long bytesIn = 0;	// timings: source file sizes
 		for (String relPath : files) {
 			// Construct source file path
 			String srcFile = srcAbsPath + fSep + relPath;
+			long size = (_timings == null ? 0 : new File (srcFile).length ());
 
 			// Transform the file name as needed
 			if (_mapper != null) {
@@ -111,6 +135,7 @@ public class DoJar extends JarBase {
 
 			// Add the file path to the argument list
 			execArgs.add (srcFile);
+			bytesIn += size;
 		}
 		if (skipCount != 0)
 			log (skipCount + " files skipped");
@@ -120,7 +145,10 @@ public class DoJar extends JarBase {
 		}
 
 		// Execute the operation
-		if (!zExecJar ("DoJar", execArgs, oFile, appendMode)) {
+		if (!zTimedExecJar (
+				"DoJar", _srcDir.getAbsolutePath (), files.length - skipCount,
+				bytesIn, execArgs, oFile, appendMode
+			)) {
 			if (_showErr && !_verbose) // args already shown for verbose mode
 				log (zLogLine (execArgs, oFile, appendMode));
 			log ("        **** FAILED *****", Project.MSG_ERR);
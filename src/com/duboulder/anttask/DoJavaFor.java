@@ -2,6 +2,7 @@ package com.duboulder.anttask;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import org.apache.tools.ant.*;
 
 /**
@@ -50,6 +51,71 @@ import org.apache.tools.ant.*;
  *      Whether the output file(s) should be appended to.
  *      If output has been specified the default is true,
  *      otherwise the default is false.
+ *   worker - boolean (Optional, default false)
+ *      When true, the jar is run by a reusable worker vm
+ *      (see JarBase)
+ *   streamoutput - boolean (Optional, default false)
+ *      When true, the task starts the jar&apos;s vm and writes
+ *      its output itself (see JarBase)
+ *   timings - boolean (Optional, default false)
+ *      When true, a summary of the execution times, the estimated
+ *      vm start-up time, the bytes read and written and the
+ *      slowest executions is logged
+ *   timingsfile - File (Optional)
+ *      A JSON file for the timings of all of the executions
+ *      (turns timings on)
+ *   slowest - int (Optional, default 10)
+ *      The number of slowest executions in the timings summary
+ *   threads - int (Optional, default 1)
+ *      The maximum number of jar executions run at the same
+ *      time. When greater than 1, the output of executions
+ *      that write to the build output or to an output file
+ *      shared with other executions is captured in temporary
+ *      files and copied in source file order once each
+ *      execution completes, so the results are the same as
+ *      for sequential execution. The argument and failure
+ *      messages are also logged in source file order.
+ *   batchsize - int (Optional, default 1)
+ *      The maximum number of source files handled by one jar
+ *      execution. When greater than 1, consecutive source files
+ *      with the same output file are grouped and the jar is run
+ *      once per group, saving the start-up time of a vm for each
+ *      of the other files. See the batch protocol below.
+ *   batchseparator - String (Optional)
+ *      An argument placed between the arguments of the files
+ *      in a batch. Without it the argument lists are simply
+ *      concatenated.
+ *   batchargfile - boolean (Optional, default false)
+ *      When true, the arguments of a batch are written to a
+ *      temporary argument file and the jar gets the single
+ *      argument @&lt;argument file path&gt;.
+ *   incremental - boolean (Optional, default false)
+ *      When true, source files whose output files are up to
+ *      date are skipped. Requires an output file name mapper
+ *      that maps each source file to its own output file.
+ *   uptodatecheck - timestamp | hash (Optional, default timestamp)
+ *      timestamp: the output file is up to date when it is not
+ *      older than the source file. hash: the output file is up to
+ *      date when the source content is unchanged since the output
+ *      was made (requires manifest).
+ *   manifest - File (Optional)
+ *      A file recording the jar, its arguments and, for the hash
+ *      check, the source content digest of each processed file.
+ *      Files are processed again when any of these change.
+ *
+ * Batch protocol:
+ *   The apparg elements are applied to each source file of a
+ *   batch as usual, giving one argument list per file. The jar
+ *   is expected to process the files in a loop:
+ *     - command line: the argument lists in source file order,
+ *       separated by the batchseparator argument if it is set
+ *     - argument file (UTF-8): for each file in source file order,
+ *       a line with the number of arguments followed by one line
+ *       per argument. Backslash, newline and carriage return in an
+ *       argument are written as \\, \n and \r. The batchseparator
+ *       argument is not used.
+ *   A non-zero exit status marks all of the files in the batch
+ *   as failed.
  *
  * Contained Elements:
  *   <mapper .../> or its variants (Optional)
@@ -71,26 +137,148 @@ import org.apache.tools.ant.*;
  * </pre>
  */
 public class DoJavaFor extends JarBase {
+	// A pending jar execution for one source file or a batch of them
+	private static class ZJob {
+		final String			srcFile;
+		final ArrayList<String>	execArgs;
+		final String			oFile;
+		final boolean			appendMode;
+		int						fileCount;		// source files handled by the execution
+		String					signature;		// incremental mode: the jar and arguments
+		List<ZJob>				members;		// the jobs in a batch
+		File					argFile;		// batch argument file
+		File					captureFile;	// parallel mode: output copied after execution
+
+		ZJob (String srcFile, ArrayList<String> execArgs, String oFile, boolean appendMode) {
+			this.srcFile	= srcFile;
+			this.execArgs	= execArgs;
+			this.oFile		= oFile;
+			this.appendMode	= appendMode;
+			this.fileCount	= 1;
+		}
+	}
+
+	protected int					_threads;
+	protected int					_batchSize;
+	protected String				_batchSeparator;
+	protected boolean				_batchArgFile;
+	protected boolean				_incremental;
+	protected String				_upToDateCheck;
+	protected File					_manifestFile;
+
+	public DoJavaFor () {
+		_threads		= 1;
+		_batchSize		= 1;
+		_batchSeparator	= null;
+		_batchArgFile	= false;
+		_incremental	= false;
+		_upToDateCheck	= UpToDateManifest.TIMESTAMP;
+		_manifestFile	= null;
+	}
+
+	/**
+	 * The maximum number of concurrent jar executions
+	 * @return the thread count (&gt;= 1)
+	 */
+	public int getThreads () { return _threads; }
+	public void setThreads (int n) {
+		if (n < 1)
+			throw new BuildException ("threads must be >= 1");
+		_threads = n;
+	}
+
+	/**
+	 * The maximum number of source files passed to one jar execution
+	 * @return the batch size (&gt;= 1)
+	 */
+	public int getBatchSize () { return _batchSize; }
+	public void setBatchSize (int n) {
+		if (n < 1)
+			throw new BuildException ("batchsize must be >= 1");
+		_batchSize = n;
+	}
+
+	/**
+	 * The argument placed between the argument lists of the files in a batch
+	 * @return the separator argument (may be null)
+	 */
+	public String getBatchSeparator () { return _batchSeparator; }
+	public void setBatchSeparator (String s) { _batchSeparator = s; }
+
+	/**
+	 * Whether batch arguments are passed in an argument file
+	 * @return true when an argument file is used
+	 */
+	public boolean getBatchArgFile () { return _batchArgFile; }
+	public void setBatchArgFile (boolean f) { _batchArgFile = f; }
+
+	/**
+	 * Whether source files with up to date output files are skipped
+	 * @return true for incremental processing
+	 */
+	public boolean getIncremental () { return _incremental; }
+	public void setIncremental (boolean f) { _incremental = f; }
 
-	public DoJavaFor () {}
+	/**
+	 * The up-to-date check for incremental processing
+	 * @return "timestamp" or "hash"
+	 */
+	public String getUpToDateCheck () { return _upToDateCheck; }
+	public void setUpToDateCheck (String check) {
+		if (!UpToDateManifest.TIMESTAMP.equals (check) &&
+			!UpToDateManifest.HASH.equals (check))
+			throw new BuildException (
+				"uptodatecheck must be 'timestamp' or 'hash'"
+			);
+		_upToDateCheck = check;
+	}
+
+	/**
+	 * The manifest file for incremental processing
+	 * @return the manifest file (may be null)
+	 */
+	public File getManifest () { return _manifestFile; }
+	public void setManifest (File f) { _manifestFile = f; }
 
 	@Override
 	public void execute() throws BuildException {
+		zStartTimings ("DoJavaFor");
+		try {
+			zzExecute ();
+		}
+		finally {
+			zCloseOutputs ();
+			zReportTimings ();
+		}
+	}
+
+	private void zzExecute () throws BuildException {
 		// Check the attributes
 		zCheckSrcDir ();
 		if (_outputFile != null && _mapper != null)
 			throw new BuildException (
 				"Only one of the output file name or output file name mapper can be used"
 			);
+		if (_incremental && _mapper == null)
+			throw new BuildException (
+				"incremental mode requires an output file name mapper"
+			);
+		UpToDateManifest manifest = null;
+		if (_incremental)
+			manifest = new UpToDateManifest (_manifestFile, _upToDateCheck);
 
 		String[] files = zGetSrcFiles ();
+		if (_incremental)
+			zzCheckOneToOne (files);
 
 		int count = 0; 		// source file count
 		int skipCount = 0;	// skipped files
+		int upToDateCount = 0;	// incremental mode: unchanged files
 		int errCount = 0;	// failed executions
 
 		String srcAbsPath = _srcDir.getAbsolutePath ();
 		String fSep = File.separator;
+		List<ZJob> jobs = new ArrayList<ZJob> ();
 
 		for (String relPath : files) {
 			// Construct source file path
@@ -141,6 +329,21 @@ public class DoJavaFor extends JarBase {
 					execArgs.add (text);
 			}
 
+			ZJob job = new ZJob (srcFile, execArgs, oFile, appendMode);
+			if (manifest != null) {
+				job.signature = zzSignature (job);
+				if (manifest.isUpToDate (srcFile, oFile, job.signature)) {
+					if (_verbose)
+						log ("    Up to date " + srcFile);
+					upToDateCount++;
+					continue;
+				}
+			}
+			if (_batchSize > 1 || (_threads > 1 && !_pretend)) {
+				jobs.add (job);
+				continue;
+			}
+
 			if (_verbose) {
 				log (zLogLine (execArgs, oFile, appendMode));
 			}
@@ -148,24 +351,346 @@ public class DoJavaFor extends JarBase {
             if (_pretend) continue;
 
 			// Execute the operation
-			if (!zExecJar ("DoJavaFor", execArgs, oFile, appendMode)) {
+			boolean ok = zzExec (job, oFile, appendMode);
+			zzRecord (manifest, job, ok);
+			if (!ok) {
 				errCount++;
-				if (_showErr && !_verbose) // args already shown for verbose mode
-					log (zLogLine (execArgs, oFile, appendMode));
-				if (_verbose || _showErr)
-					log ("        **** FAILED *****", Project.MSG_ERR);
-				else 
-					log (
-						"        **** " + srcFile + 
-							" FAILED *****", Project.MSG_ERR
-					);
+				zzLogFailure (job);
+			}
+		}
+
+		if (_batchSize > 1)
+			jobs = zzBatch (jobs);
+		try {
+			if (_threads > 1 && !_pretend && !jobs.isEmpty ())
+				errCount += zzRunParallel (jobs, manifest);
+			else {
+				for (ZJob job : jobs) {
+					if (_verbose)
+						log (zLogLine (job.execArgs, job.oFile, job.appendMode));
+					if (_pretend) continue;
+					boolean ok = zzExec (job, job.oFile, job.appendMode);
+					zzRecord (manifest, job, ok);
+					if (!ok) {
+						errCount += job.fileCount;
+						zzLogFailure (job);
+					}
+				}
+			}
+		}
+		finally {
+			for (ZJob job : jobs) {
+				if (job.argFile != null) job.argFile.delete ();
 			}
 		}
 		
+		if (manifest != null)
+			manifest.save ();
+
 		if (skipCount != 0)
 			log (skipCount + " files skipped");
+		if (upToDateCount != 0)
+			log (upToDateCount + " files up to date");
 		if (errCount != 0)
 			log (errCount + " files with errors");
 	}
+
+	// Incremental mode runs only the out of date sources, so an output
+	// file made from several sources would lose the others' output
+	private void zzCheckOneToOne (String[] files) throws BuildException {
+		String srcAbsPath = _srcDir.getAbsolutePath ();
+		Map<String,String> sources = new HashMap<String,String> ();
+		for (String relPath : files) {
+			String srcFile = srcAbsPath + File.separator + relPath;
+			String[] f = _mapper.mapFileName (srcFile);
+			if (f == null) continue;
+			String prev = sources.put (f[0], srcFile);
+			if (prev != null)
+				throw new BuildException (
+					"incremental mode requires each source file to have its own output file: '" +
+						prev + "' and '" + srcFile + "' both map to '" + f[0] + "'"
+				);
+		}
+	}
+
+	// Run the jobs on a pool of _threads threads, answer the error count
+	private int zzRunParallel (List<ZJob> jobs, UpToDateManifest manifest)
+		throws BuildException
+	{
+		// Executions writing to the build output or to a file shared
+		// with another execution get their own capture file
+		Map<String,Integer> outputUse = new HashMap<String,Integer> ();
+		for (ZJob job : jobs) {
+			if (job.oFile == null) continue;
+			Integer n = outputUse.get (job.oFile);
+			outputUse.put (job.oFile, (n == null ? 1 : n + 1));
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool (
+			Math.min (_threads, jobs.size ())
+		);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>> ();
+		int errCount = 0;
+		try {
+			for (final ZJob job : jobs) {
+				if (job.oFile == null || outputUse.get (job.oFile) > 1) {
+					try {
+						job.captureFile = File.createTempFile ("dojavafor", ".out");
+					}
+					catch (IOException e) {
+						throw new BuildException (
+							"Error creating a temporary output file", e
+						);
+					}
+				}
+
+				results.add (pool.submit (new Callable<Boolean> () {
+					@Override
+					public Boolean call () {
+						if (job.captureFile == null)
+							return zzExec (job, job.oFile, job.appendMode);
+						return zzExec (job, job.captureFile.getAbsolutePath (), false);
+					}
+				}));
+			}
+
+			// Report and copy the output in source file order
+			for (int i = 0; i < jobs.size (); i++) {
+				ZJob job = jobs.get (i);
+				boolean ok = zzGetResult (results.get (i));
+				zzRecord (manifest, job, ok);
+
+				if (_verbose)
+					log (zLogLine (job.execArgs, job.oFile, job.appendMode));
+				if (job.captureFile != null)
+					zzCopyCaptured (job);
+				if (!ok) {
+					errCount += job.fileCount;
+					zzLogFailure (job);
+				}
+			}
+		}
+		finally {
+			pool.shutdownNow ();
+			for (ZJob job : jobs) {
+				if (job.captureFile != null) job.captureFile.delete ();
+			}
+		}
+		return errCount;
+	}
+
+	// Group consecutive jobs with the same output file into batches
+	// of up to _batchSize files
+	private List<ZJob> zzBatch (List<ZJob> jobs) throws BuildException {
+		List<ZJob> batches = new ArrayList<ZJob> ();
+		int i = 0;
+		while (i < jobs.size ()) {
+			ZJob first = jobs.get (i);
+			int end = i + 1;
+			while (end < jobs.size () && end - i < _batchSize) {
+				String oFile = jobs.get (end).oFile;
+				if (oFile == null ? first.oFile != null : !oFile.equals (first.oFile))
+					break;
+				end++;
+			}
+
+			List<ZJob> members = jobs.subList (i, end);
+			if (members.size () == 1 && !_batchArgFile) {
+				batches.add (first);
+				i = end;
+				continue;
+			}
+
+			ArrayList<String> execArgs = new ArrayList<String> ();
+			File argFile = null;
+			if (_batchArgFile && !_pretend) {
+				argFile = zzWriteArgFile (members);
+				execArgs.add ("@" + argFile.getAbsolutePath ());
+			}
+			else {
+				// (pretend mode shows the argument file's arguments
+				// without writing it)
+				for (ZJob job : members) {
+					if (job != first && _batchSeparator != null && !_batchArgFile)
+						execArgs.add (_batchSeparator);
+					execArgs.addAll (job.execArgs);
+				}
+			}
+
+			String srcDesc = first.srcFile;
+			if (members.size () > 1)
+				srcDesc += " (+" + (members.size () - 1) + " more)";
+			ZJob batch = new ZJob (srcDesc, execArgs, first.oFile, first.appendMode);
+			batch.fileCount	= members.size ();
+			batch.argFile	= argFile;
+			batch.members	= new ArrayList<ZJob> (members);
+			batches.add (batch);
+			i = end;
+		}
+		return batches;
+	}
+
+	// Write the argument lists of a batch's jobs: for each job a line
+	// with its argument count, then one escaped argument per line
+	private File zzWriteArgFile (List<ZJob> members) throws BuildException {
+		File argFile = null;
+		Writer out = null;
+		try {
+			argFile = File.createTempFile ("dojavafor", ".args");
+			out = new BufferedWriter (
+				new OutputStreamWriter (new FileOutputStream (argFile), "UTF-8")
+			);
+			for (ZJob job : members) {
+				out.write (Integer.toString (job.execArgs.size ()));
+				out.write ('\n');
+				for (String arg : job.execArgs) {
+					zzWriteArg (out, arg);
+					out.write ('\n');
+				}
+			}
+			out.close ();
+			out = null;
+			return argFile;
+		}
+		catch (IOException e) {
+			if (argFile != null) argFile.delete ();
+			throw new BuildException (
+				"Error writing the batch argument file", e
+			);
+		}
+		finally {
+			try { if (out != null) out.close (); } catch (Exception e1) {};
+		}
+	}
+
+	// Write an argument with backslash, newline and carriage return
+	// escaped as \\, \n and \r
+	private static void zzWriteArg (Writer out, String arg) throws IOException {
+		for (int i = 0; i < arg.length (); i++) {
+			char c = arg.charAt (i);
+			switch (c) {
+			case '\\':	out.write ("\\\\"); break;
+			case '\n':	out.write ("\\n"); break;
+			case '\r':	out.write ("\\r"); break;
+			default:	out.write (c);
+			}
+		}
+	}
+
+	private boolean zzGetResult (Future<Boolean> result) throws BuildException {
+		try {
+			return result.get ();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread ().interrupt ();
+			throw new BuildException ("Interrupted waiting for jar execution", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause () instanceof BuildException)
+				throw (BuildException) e.getCause ();
+			throw new BuildException ("Java jar execution error", e.getCause ());
+		}
+	}
+
+	// Copy a job's captured output to the build output or append it to
+	// its output file (truncating first when not in append mode)
+	private void zzCopyCaptured (ZJob job) throws BuildException {
+		if (job.oFile == null) {
+			BufferedReader in = null;
+			try {
+				in = new BufferedReader (new FileReader (job.captureFile));
+				String line;
+				while ((line = in.readLine ()) != null)
+					log (line);
+			}
+			catch (IOException e) {
+				throw new BuildException (
+					"Error reading captured output for " + job.srcFile, e
+				);
+			}
+			finally {
+				try { if (in != null) in.close (); } catch (Exception e1) {};
+			}
+			return;
+		}
+
+		InputStream in = null;
+		OutputStream out = null;
+		try {
+			in = new FileInputStream (job.captureFile);
+			out = new FileOutputStream (job.oFile, job.appendMode);
+			byte[] buf = new byte[65536];
+			int n;
+			while ((n = in.read (buf)) > 0)
+				out.write (buf, 0, n);
+		}
+		catch (IOException e) {
+			throw new BuildException (
+				"Error copying output for " + job.srcFile + " to " + job.oFile, e
+			);
+		}
+		finally {
+			try { if (in != null) in.close (); } catch (Exception e1) {};
+			try { if (out != null) out.close (); } catch (Exception e2) {};
+		}
+	}
+
+	// Execute a job's jar, timed when timings are on
+	private boolean zzExec (ZJob job, String oFile, boolean appendMode) {
+		long bytesIn = 0;
+		if (_timings != null) {
+			if (job.members == null)
+				bytesIn = new File (job.srcFile).length ();
+			else {
+				for (ZJob j : job.members)
+					bytesIn += new File (j.srcFile).length ();
+			}
+		}
+		return zTimedExecJar (
+			"DoJavaFor", job.srcFile, job.fileCount, bytesIn,
+			job.execArgs, oFile, appendMode
+		);
+	}
+
+	// The text identifying a file's processing: the jar and the
+	// execution arguments and output
+	private String zzSignature (ZJob job) {
+		StringBuilder sb = new StringBuilder ();
+		sb.append (_jarFile.getAbsolutePath ()).append ('\n');
+		sb.append (_jarFile.lastModified ()).append ('\n');
+		for (String arg : job.execArgs)
+			sb.append (arg).append ('\n');
+		sb.append (job.oFile).append ('\n');
+		sb.append (job.appendMode);
+		return sb.toString ();
+	}
+
+	// Record the result of an execution in the manifest
+	private void zzRecord (UpToDateManifest manifest, ZJob job, boolean ok)
+		throws BuildException
+	{
+		if (manifest == null) return;
+		List<ZJob> done = job.members;
+		if (done == null)
+			done = Collections.singletonList (job);
+		for (ZJob j : done) {
+			if (ok)
+				manifest.record (j.srcFile, j.signature);
+			else
+				manifest.remove (j.srcFile);
+		}
+	}
+
+	private void zzLogFailure (ZJob job) {
+		if (_showErr && !_verbose) // args already shown for verbose mode
+			log (zLogLine (job.execArgs, job.oFile, job.appendMode));
+		if (_verbose || _showErr)
+			log ("        **** FAILED *****", Project.MSG_ERR);
+		else 
+			log (
+				"        **** " + job.srcFile + 
+					" FAILED *****", Project.MSG_ERR
+			);
+	}
 }
 
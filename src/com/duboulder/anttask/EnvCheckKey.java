@@ -0,0 +1,19 @@
+package com.duboulder.anttask;
+
+import org.apache.tools.ant.*;
+
+/**
+ * Optional interface for environment settings whose check results can
+ * be shared by all of the checks in a build (see EnvCheckMemo). A setting
+ * that implements it promises that checks with the same name and key
+ * give the same result, so the key must cover all of the check&apos;s
+ * inputs (e.g. property values, paths, required versions).
+ */
+public interface EnvCheckKey {
+	/**
+	 * The text identifying the inputs of the check
+	 * @param project the project the check would run for
+	 * @return the key, or null when the check should not be memoized
+	 */
+	String getCheckKey (Project project);
+}
@@ -0,0 +1,126 @@
+package com.duboulder.anttask;
+
+import java.util.concurrent.*;
+import org.apache.tools.ant.*;
+
+/**
+ * Build-scoped memo of environment check results for settings that
+ * implement EnvCheckKey. Results are keyed by the setting&apos;s class,
+ * name and check key. Concurrent checks with the same key share one
+ * evaluation.<br/>
+ * <br/>
+ * The memo is stored as a project reference. It is added to the
+ * sub-builds started by ant/subant when they start (they inherit the
+ * build listener that does this), and it is cleared when the build that
+ * created it finishes.
+ */
+public class EnvCheckMemo {
+	/** The project reference name for the build&apos;s memo */
+	public static final String REFERENCE_NAME = "com.duboulder.anttask.EnvCheckMemo";
+
+	private final Project			_owner;
+	private final ConcurrentHashMap<String,FutureTask<String>> _results;
+	private volatile boolean		_finished;
+
+	private EnvCheckMemo (Project owner) {
+		_owner		= owner;
+		_results	= new ConcurrentHashMap<String,FutureTask<String>> ();
+		_finished	= false;
+	}
+
+	/**
+	 * Answer the memo for the project, creating it on first use
+	 * @param project the project doing the check (not null)
+	 * @return the project&apos;s memo
+	 */
+	public static EnvCheckMemo Get (Project project) {
+		if (project == null)
+			throw new NullPointerException ("project is null");
+		synchronized (project) {
+			Object ref = project.getReference (REFERENCE_NAME);
+			if (ref instanceof EnvCheckMemo)
+				return (EnvCheckMemo) ref;
+
+			final EnvCheckMemo memo = new EnvCheckMemo (project);
+			project.addReference (REFERENCE_NAME, memo);
+			project.addBuildListener (new SubBuildListener () {
+				@Override
+				public void buildStarted (BuildEvent event) {}
+				@Override
+				public void buildFinished (BuildEvent event) { memo.zzFinish (event.getProject ()); }
+				@Override
+				public void subBuildStarted (BuildEvent event) { memo.zzShare (event.getProject ()); }
+				@Override
+				public void subBuildFinished (BuildEvent event) { memo.zzFinish (event.getProject ()); }
+				@Override
+				public void targetStarted (BuildEvent event) {}
+				@Override
+				public void targetFinished (BuildEvent event) {}
+				@Override
+				public void taskStarted (BuildEvent event) {}
+				@Override
+				public void taskFinished (BuildEvent event) {}
+				@Override
+				public void messageLogged (BuildEvent event) {}
+			});
+			return memo;
+		}
+	}
+
+	/**
+	 * Check a setting, using the memoized result when the setting
+	 * implements EnvCheckKey and answers a key
+	 * @param setting the setting to check (not null)
+	 * @param project the project for the check
+	 * @return the check result (null when the check passed)
+	 */
+	public String check (final EnvSetting setting, final Project project) {
+		String key = null;
+		if (setting instanceof EnvCheckKey)
+			key = ((EnvCheckKey) setting).getCheckKey (project);
+		if (key == null)
+			return setting.check (project);
+
+		key = setting.getClass ().getName () + "\n" + setting.getName () + "\n" + key;
+		FutureTask<String> result = new FutureTask<String> (new Callable<String> () {
+			@Override
+			public String call () {
+				return setting.check (project);
+			}
+		});
+		FutureTask<String> prev = _results.putIfAbsent (key, result);
+		if (prev == null)
+			result.run ();
+		else
+			result = prev;
+
+		try {
+			return result.get ();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread ().interrupt ();
+			throw new BuildException ("Interrupted waiting for an environment check", e);
+		}
+		catch (ExecutionException e) {
+			// Failed checks are not memoized
+			_results.remove (key, result);
+			if (e.getCause () instanceof RuntimeException)
+				throw (RuntimeException) e.getCause ();
+			throw new BuildException ("Environment check error", e.getCause ());
+		}
+	}
+
+	private void zzShare (Project subProject) {
+		if (_finished || subProject == null) return;
+		synchronized (subProject) {
+			if (!(subProject.getReference (REFERENCE_NAME) instanceof EnvCheckMemo))
+				subProject.addReference (REFERENCE_NAME, this);
+		}
+	}
+
+	private void zzFinish (Project project) {
+		if (project != _owner) return;
+		_finished = true;
+		_results.clear ();
+	}
+}
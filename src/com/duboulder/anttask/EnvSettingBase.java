@@ -64,6 +64,7 @@ public abstract class EnvSettingBase extends DataType implements EnvSetting {
 		name = name.trim ();
 		if (name.isEmpty ())
 			throw new BuildException ("enivornment setting name must not be empty");
+		_name = name;
 	}
 
 	/**
@@ -1,19 +1,39 @@
 package com.duboulder.anttask;
 
 import java.util.*;
+import java.util.concurrent.*;
 import org.apache.tools.ant.*;
 
 /**
- * Environment settings collection.
+ * Environment settings collection.<br/>
+ * <br/>
+ * The threads attribute sets how many of the child checks can run at the
+ * same time (default 1). The combined check report always lists the
+ * messages in the order of the child settings. Children implementing
+ * EnvCheckKey are checked through the build&apos;s EnvCheckMemo, so the
+ * same check is only done once per build.
  */
 public class EnvSettings extends EnvSettingBase implements EnvSetting {
 	private List<EnvSetting>	_settings;
+	private int					_threads;
 	
 	public EnvSettings () {
 		_settings = new ArrayList<EnvSetting> ();
+		_threads = 1;
 		setSpaceAfter (1);
 	}
 
+	/**
+	 * The maximum number of child checks run at the same time
+	 * @return the thread count (&gt;= 1)
+	 */
+	public int getThreads () { return _threads; }
+	public void setThreads (int n) {
+		if (n < 1)
+			throw new BuildException ("threads must be >= 1");
+		_threads = n;
+	}
+
 	public void addConfigured (EnvSetting setting) {
 		_settings.add (setting);
 	}
@@ -38,20 +58,63 @@ public class EnvSettings extends EnvSettingBase implements EnvSetting {
 	}
 
 	@Override
-	public String check(Project project) {
+	public String check(final Project project) {
 		if (!isEnabled () || !isChecked ()) return null;
-		String errMsg = null;
+		final EnvCheckMemo memo = EnvCheckMemo.Get (project);
 
-		for (EnvSetting setting : _settings) {
-			String msg = setting.check (project);
+		List<String> msgs = new ArrayList<String> ();
+		if (_threads <= 1 || _settings.size () <= 1) {
+			for (EnvSetting setting : _settings)
+				msgs.add (memo.check (setting, project));
+		}
+		else {
+			ExecutorService pool = Executors.newFixedThreadPool (
+				Math.min (_threads, _settings.size ())
+			);
+			try {
+				List<Future<String>> results = new ArrayList<Future<String>> ();
+				for (final EnvSetting setting : _settings) {
+					results.add (pool.submit (new Callable<String> () {
+						@Override
+						public String call () {
+							return memo.check (setting, project);
+						}
+					}));
+				}
+				for (Future<String> result : results)
+					msgs.add (zzGetResult (result));
+			}
+			finally {
+				pool.shutdownNow ();
+			}
+		}
+
+		// Combine the messages in setting order
+		StringBuilder errMsg = null;
+		for (String msg : msgs) {
 			if (msg == null) continue;
 
 			if (errMsg == null)
-				errMsg = msg;
+				errMsg = new StringBuilder (msg);
 			else
-				errMsg += "\n" + msg;
+				errMsg.append ('\n').append (msg);
 		}
 
-		return errMsg;
-	}	
+		return errMsg == null ? null : errMsg.toString ();
+	}
+
+	private static String zzGetResult (Future<String> result) {
+		try {
+			return result.get ();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread ().interrupt ();
+			throw new BuildException ("Interrupted waiting for an environment check", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause () instanceof RuntimeException)
+				throw (RuntimeException) e.getCause ();
+			throw new BuildException ("Environment check error", e.getCause ());
+		}
+	}
 }
@@ -2,7 +2,6 @@ package com.duboulder.anttask;
 
 import java.io.File;
 import org.apache.tools.ant.BuildException;
-import org.apache.tools.ant.DirectoryScanner;
 import org.apache.tools.ant.util.FileNameMapper;
 import org.apache.tools.ant.types.Mapper;
 import org.apache.tools.ant.taskdefs.MatchingTask;
@@ -19,12 +18,16 @@ import org.apache.tools.ant.taskdefs.MatchingTask;
  *        &nbsp;&nbsp;The root directory for the implicit file set<br/>
  *    property - String<br/>
  *        &nbsp;&nbsp;The property to set with the found name<br/>    
+ *    usecache - boolean<br/>
+ *        &nbsp;&nbsp;When true, the scan result is taken from or added to<br/>
+ *        &nbsp;&nbsp;the build&apos;s scan cache (see ScanCache, default false)
  * </div>
  * <br/>
  */
 public class FindFile extends MatchingTask {
 	private String			_property;
 	private File			_baseDir;
+	private boolean			_useCache;
 
 	public FindFile () {
 	}
@@ -50,6 +53,9 @@ public class FindFile extends MatchingTask {
 		_baseDir = baseDir;
 	}
 
+	public boolean getUseCache () { return _useCache; }
+	public void setUseCache (boolean f) { _useCache = f; }
+
 	@Override
 	public void execute() throws BuildException {
         if (_baseDir == null)
@@ -57,8 +63,7 @@ public class FindFile extends MatchingTask {
         if (_property == null)
             throw new BuildException ("property attribute is required");
 
-		DirectoryScanner dirScan = getDirectoryScanner (_baseDir);
-		for (String relPath : dirScan.getIncludedFiles ()) {
+		for (String relPath : zzIncludedFiles ()) {
 // Log the absolute input path that most tasks
 // will use when using a file set.
 log (_baseDir + "/" + relPath);
@@ -70,5 +75,21 @@ log (_baseDir + "/" + relPath);
             }
 		}
 	}
+
+	// The included files, from the build's scan cache when it is used
+	private String[] zzIncludedFiles () {
+		if (!_useCache || _baseDir == null)
+			return getDirectoryScanner (_baseDir).getIncludedFiles ();
+
+		ScanCache cache = ScanCache.Get (getProject ());
+		String key = ScanCache.Key (_baseDir, fileset, getProject ());
+		String[] files = (key == null ? null : cache.getIncludedFiles (key));
+		if (files == null) {
+			files = getDirectoryScanner (_baseDir).getIncludedFiles ();
+			if (key != null)
+				cache.putIncludedFiles (key, _baseDir, files);
+		}
+		return files;
+	}
 }
 
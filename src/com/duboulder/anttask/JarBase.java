@@ -4,6 +4,8 @@
 package com.duboulder.anttask;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.util.*;
 import org.apache.tools.ant.*;
 import org.apache.tools.ant.taskdefs.*;
@@ -12,7 +14,27 @@ import org.apache.tools.ant.util.*;
 
 /**
  * Base class for jar-based tasks. The appendSet property is true when
- * when the append attribute has been specified in the task element.
+ * when the append attribute has been specified in the task element.<br/>
+ * <br/>
+ * When the worker attribute is true, the jar is run by a long-lived
+ * worker vm (see JarWorker and JarWorkerPool) instead of a new forked vm
+ * for each execution. The worker loads the jar&apos;s main class once and
+ * is shared by the jar tasks of the build, so later executions run with
+ * loaded classes and compiled code. The jar&apos;s main method must be
+ * safe to call repeatedly in the same vm.<br/>
+ * <br/>
+ * When the streamoutput attribute is true, the jar&apos;s vm is started
+ * by the task and its stdout is piped into an output channel held by
+ * the task, instead of running it with the java task. The output file
+ * set with the output attribute stays open for all of the task&apos;s
+ * executions. Executions with an output file are always run this way,
+ * as the java task does not redirect the output of executeJava.
+ * Subclasses must call zCloseOutputs when they are done.<br/>
+ * <br/>
+ * When the timings or timingsfile attributes are set, the executions
+ * run through zTimedExecJar are timed and reported (see TaskTimings).
+ * The vm start-up part of a forked execution is estimated by timing
+ * java -version once.
  */
 public class JarBase extends MatchingTask {
     protected boolean               _pretend;
@@ -25,6 +47,34 @@ public class JarBase extends MatchingTask {
 	protected boolean				_appendSet;		// flag for explicit setting of _append
 	protected boolean				_append;
 	protected ArrayList<AppArg> 	_args;
+	protected boolean				_worker;
+	protected boolean				_streamOutput;
+	private final Map<String,ZSink>	_sinks = new HashMap<String,ZSink> ();	// open aggregate outputs
+	protected boolean				_timingsEnabled;
+	protected File					_timingsFile;
+	protected int					_slowest = 10;
+	protected TaskTimings			_timings;		// null when not timing
+
+	private static volatile long	_vmStartNanos = -1;	// estimated vm start-up time
+
+	// An output file channel shared by the executions of a task
+	private static class ZSink {
+		final FileOutputStream	stream;
+		final FileChannel		channel;
+		final boolean			shared;		// kept open until zCloseOutputs
+
+		ZSink (FileOutputStream stream, boolean shared) {
+			this.stream		= stream;
+			this.channel	= stream.getChannel ();
+			this.shared		= shared;
+		}
+
+		synchronized void write (byte[] b, int off, int len) throws IOException {
+			ByteBuffer buf = ByteBuffer.wrap (b, off, len);
+			while (buf.hasRemaining ())
+				channel.write (buf);
+		}
+	}
 
 	protected JarBase () {
 		_jarFile	= null;
@@ -36,6 +86,8 @@ public class JarBase extends MatchingTask {
 		_appendSet	= false;
 		_append		= false;
 		_args 		= new ArrayList<AppArg> ();
+		_worker		= false;
+		_streamOutput	= false;
 	}
 
     /**
@@ -140,6 +192,42 @@ public class JarBase extends MatchingTask {
 	public boolean getAppend () { return _append; }
 	public void setAppend (boolean f) { _append = f; _appendSet = true; }
 
+	/**
+	 * Control whether the jar is run by a reusable worker vm
+	 * @return true when executions are run by a worker vm
+	 */
+	public boolean getWorker () { return _worker; }
+	public void setWorker (boolean f) { _worker = f; }
+
+	/**
+	 * Control whether the jar&apos;s output is piped through the task
+	 * @return true when the task starts the jar and writes its output
+	 */
+	public boolean getStreamOutput () { return _streamOutput; }
+	public void setStreamOutput (boolean f) { _streamOutput = f; }
+
+	/**
+	 * Control whether a timing summary is logged
+	 * @return true when executions are timed
+	 */
+	public boolean getTimings () { return _timingsEnabled; }
+	public void setTimings (boolean f) { _timingsEnabled = f; }
+
+	/**
+	 * The JSON file for the timings of the executions, setting it
+	 * turns timings on
+	 * @return the timings file (may be null)
+	 */
+	public File getTimingsFile () { return _timingsFile; }
+	public void setTimingsFile (File f) { _timingsFile = f; }
+
+	/**
+	 * The number of slowest executions listed in the timing summary
+	 * @return the slowest count (default 10)
+	 */
+	public int getSlowest () { return _slowest; }
+	public void setSlowest (int n) { _slowest = n; }
+
 	/**
 	 * Create an app arg instance for ant to use.
 	 * @return the new application argument instance
@@ -184,6 +272,14 @@ public class JarBase extends MatchingTask {
 		String oFile, 
 		boolean append
 	) {
+		if (_worker)
+			return zzExecWorker (execArgs, oFile, append);
+		// The java task's output redirection is not applied by
+		// executeJava (only by execute), so output files are always
+		// written by the task itself
+		if (_streamOutput || oFile != null)
+			return zzExecStream (execArgs, oFile, append);
+
 		Task task = getProject ().createTask ("java");
 		if (task == null) throw new BuildException ("java task not found");
 		if (!(task instanceof Java))
@@ -193,32 +289,161 @@ public class JarBase extends MatchingTask {
 			);
 		Java jTask = (Java) task;
 
-		// Set the output file
-		// NOTE: Output file creation errors are bypassing our
-		// catch clause around jTask.executeJava () so we are
-		// trying to detect errors before that point
-		if (oFile != null) {
-			try {
-				File out = new File (oFile);
-				if (out.isDirectory ()) {
-					log (
-						"Output file '" + oFile + 
-							"' is a directory", 
-						Project.MSG_ERR
-					);
-					return false;
-				}
+		// Set command arguments
+		for (String arg : execArgs) {
+			Commandline.Argument cmdArg = jTask.createArg ();
+			cmdArg.setValue (arg);
+		}
 
-				// Open for output/append (so we can trap errors before
-				// calling executeJava on jTask)
-				FileOutputStream ofs = new FileOutputStream (out, append);
-				ofs.close ();
+		jTask.setJar (_jarFile);
+		jTask.setFork (true); // required for jar execution
+		jTask.setTaskName (taskName);
 
-				jTask.setOutput (out);
-				jTask.setAppend (true);
-                jTask.setLogError (true);
+		try {
+			return jTask.executeJava () == 0;
+		}
+		catch (Exception e) {
+			// This handler is being bypassed: sun-jdk 1.6.07 and
+			// ant 1.7 (FileNotFoundException not trapped here)
+			log ("Java jar execution error:", Project.MSG_ERR);
+			if (e.getMessage () !=  null)
+				log ("    " + e.getMessage (), Project.MSG_ERR);
+
+			if (_verbose) {
+				throw new BuildException (
+					"Java jar execution error", e
+				);
 			}
-			catch (Exception e) {
+		}
+		return false;
+	}
+
+	/**
+	 * Start timing when the timing attributes are set, called by
+	 * subclasses at the start of execute
+	 * @param taskName the task name for the report
+	 */
+	protected void zStartTimings (String taskName) {
+		_timings = null;
+		if (_timingsEnabled || _timingsFile != null)
+			_timings = new TaskTimings (taskName);
+	}
+
+	/**
+	 * Report and stop timing
+	 * @throws BuildException if the timings file can&apos;t be written
+	 */
+	protected void zReportTimings () throws BuildException {
+		if (_timings == null) return;
+		TaskTimings timings = _timings;
+		_timings = null;
+		timings.report (this, _slowest, _timingsFile);
+	}
+
+	/**
+	 * Execute the jar with zExecJar, adding its timings when timing
+	 * @param taskName the task name for the java task
+	 * @param item the processed item for the report
+	 * @param files the number of source files processed by the execution
+	 * @param bytesIn the size of the source files
+	 * @param execArgs the jar&apos;s arguments
+	 * @param oFile the output file (may be null)
+	 * @param append true to append to the output file
+	 * @return true if the execution succeeded
+	 */
+	protected boolean zTimedExecJar (
+		String taskName, String item, int files, long bytesIn,
+		ArrayList<String> execArgs, String oFile, boolean append
+	) {
+		TaskTimings timings = _timings;
+		if (timings == null)
+			return zExecJar (taskName, execArgs, oFile, append);
+
+		long outBefore = 0;
+		if (oFile != null && append)
+			outBefore = new File (oFile).length ();
+		long fork = (_worker ? 0 : zzVmStartNanos ());
+
+		long start = System.nanoTime ();
+		boolean ok = false;
+		try {
+			ok = zExecJar (taskName, execArgs, oFile, append);
+		}
+		finally {
+			long wall = System.nanoTime () - start;
+			long bytesOut = (oFile == null ? 0 : new File (oFile).length () - outBefore);
+			timings.add (item, files, wall, Math.min (fork, wall), bytesIn, Math.max (bytesOut, 0), ok);
+		}
+		return ok;
+	}
+
+	// Estimate the vm start-up time by timing java -version once
+	private static long zzVmStartNanos () {
+		long t = _vmStartNanos;
+		if (t >= 0) return t;
+
+		t = 0;
+		try {
+			ProcessBuilder pb = new ProcessBuilder (
+				JavaEnvUtils.getJreExecutable ("java"), "-version"
+			);
+			pb.redirectErrorStream (true);
+			long start = System.nanoTime ();
+			Process process = pb.start ();
+			InputStream in = process.getInputStream ();
+			byte[] buf = new byte[4096];
+			while (in.read (buf) > 0) {}
+			process.waitFor ();
+			t = System.nanoTime () - start;
+		}
+		catch (Exception e) { // no estimate
+			if (e instanceof InterruptedException)
+				Thread.currentThread ().interrupt ();
+		}
+		_vmStartNanos = t;
+		return t;
+	}
+
+	/**
+	 * Close the output files held open by streamoutput mode
+	 * @throws BuildException if an output file can&apos;t be closed
+	 */
+	protected void zCloseOutputs () throws BuildException {
+		List<ZSink> sinks;
+		synchronized (_sinks) {
+			sinks = new ArrayList<ZSink> (_sinks.values ());
+			_sinks.clear ();
+		}
+		IOException error = null;
+		for (ZSink sink : sinks) {
+			try {
+				sink.stream.close ();
+			}
+			catch (IOException e) {
+				error = e;
+			}
+		}
+		if (error != null)
+			throw new BuildException ("Error closing an output file", error);
+	}
+
+	// Start the jar's vm and pipe its stdout into the output file or
+	// the build log, stderr goes to the build log
+	private boolean zzExecStream (
+		ArrayList<String> execArgs, 
+		String oFile, 
+		boolean append
+	) {
+		ZSink sink = null;
+		if (oFile != null) {
+			if (new File (oFile).isDirectory ()) {
+				log ("Output file '" + oFile + "' is a directory", Project.MSG_ERR);
+				return false;
+			}
+			try {
+				sink = zzOpenSink (oFile, append);
+			}
+			catch (IOException e) {
 				log (
 					"Output file " +
 						(append ? "append" : "create") +
@@ -229,22 +454,43 @@ public class JarBase extends MatchingTask {
 			}
 		}
 
-		// Set command arguments
-		for (String arg : execArgs) {
-			Commandline.Argument cmdArg = jTask.createArg ();
-			cmdArg.setValue (arg);
-		}
-
-		jTask.setJar (_jarFile);
-		jTask.setFork (true); // required for jar execution
-		jTask.setTaskName (taskName);
+		List<String> cmd = new ArrayList<String> ();
+		cmd.add (JavaEnvUtils.getJreExecutable ("java"));
+		cmd.add ("-jar");
+		cmd.add (_jarFile.getAbsolutePath ());
+		cmd.addAll (execArgs);
 
+		Process process = null;
+		Thread errPump = null;
 		try {
-			return jTask.executeJava () == 0;
+			// Run in the project basedir, like the java task's forked vm
+			process = new ProcessBuilder (cmd).directory (getProject ().getBaseDir ()).start ();
+			process.getOutputStream ().close ();
+			errPump = new Thread (
+				zzLineLogger (process.getErrorStream (), Project.MSG_WARN),
+				"JarBase stderr pump"
+			);
+			errPump.setDaemon (true);
+			errPump.start ();
+
+			InputStream in = process.getInputStream ();
+			if (sink == null) {
+				zzLineLogger (in, Project.MSG_INFO).run ();
+			}
+			else {
+				byte[] buf = new byte[65536];
+				int n;
+				while ((n = in.read (buf)) > 0)
+					sink.write (buf, 0, n);
+			}
+
+			int status = process.waitFor ();
+			errPump.join ();
+			return status == 0;
 		}
 		catch (Exception e) {
-			// This handler is being bypassed: sun-jdk 1.6.07 and
-			// ant 1.7 (FileNotFoundException not trapped here)
+			if (e instanceof InterruptedException)
+				Thread.currentThread ().interrupt ();
 			log ("Java jar execution error:", Project.MSG_ERR);
 			if (e.getMessage () !=  null)
 				log ("    " + e.getMessage (), Project.MSG_ERR);
@@ -255,9 +501,99 @@ public class JarBase extends MatchingTask {
 				);
 			}
 		}
+		finally {
+			if (process != null) process.destroy ();
+			if (sink != null && !sink.shared) {
+				try { sink.stream.close (); } catch (Exception e) {};
+			}
+		}
 		return false;
 	}
 
+	// The output attribute's file is opened once and shared by the
+	// executions, other output files are opened for one execution
+	private ZSink zzOpenSink (String oFile, boolean append) throws IOException {
+		boolean shared = _outputFile != null &&
+			_outputFile.getAbsolutePath ().equals (oFile);
+		if (!shared)
+			return new ZSink (new FileOutputStream (oFile, append), false);
+
+		synchronized (_sinks) {
+			ZSink sink = _sinks.get (oFile);
+			if (sink == null) {
+				sink = new ZSink (new FileOutputStream (oFile, append), true);
+				_sinks.put (oFile, sink);
+			}
+			return sink;
+		}
+	}
+
+	// Answer a runnable logging the lines of a stream
+	private Runnable zzLineLogger (final InputStream in, final int level) {
+		return new Runnable () {
+			@Override
+			public void run () {
+				BufferedReader r = new BufferedReader (new InputStreamReader (in));
+				try {
+					String line;
+					while ((line = r.readLine ()) != null)
+						log (line, level);
+				}
+				catch (IOException e) {}
+				finally {
+					try { r.close (); } catch (Exception e) {};
+				}
+			}
+		};
+	}
+
+	// Run the jar on a worker vm, the output goes to the output file or
+	// to the build log
+	private boolean zzExecWorker (
+		ArrayList<String> execArgs, 
+		String oFile, 
+		boolean append
+	) {
+		if (oFile != null && new File (oFile).isDirectory ()) {
+			log ("Output file '" + oFile + "' is a directory", Project.MSG_ERR);
+			return false;
+		}
+
+		JarWorkerPool.Result result;
+		try {
+			result = JarWorkerPool.Get (getProject ()).run (
+				_jarFile, execArgs, oFile, append
+			);
+		}
+		catch (IOException e) {
+			log ("Java jar execution error:", Project.MSG_ERR);
+			log ("    " + e.getMessage (), Project.MSG_ERR);
+			if (_verbose) {
+				throw new BuildException (
+					"Java jar execution error", e
+				);
+			}
+			return false;
+		}
+
+		zzLogOutput (result.output, Project.MSG_INFO);
+		zzLogOutput (result.error, Project.MSG_WARN);
+		return result.status == 0;
+	}
+
+	private void zzLogOutput (byte[] output, int level) {
+		if (output.length == 0) return;
+		BufferedReader in = new BufferedReader (
+			new InputStreamReader (new ByteArrayInputStream (output))
+		);
+		try {
+			String line;
+			while ((line = in.readLine ()) != null)
+				log (line, level);
+		}
+		catch (IOException e) {} // not for byte arrays
+	}
+
 	protected String zLogLine (
 		ArrayList<String> execArgs, 
 		String oFile,
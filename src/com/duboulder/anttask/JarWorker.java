@@ -0,0 +1,182 @@
+package com.duboulder.anttask;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.net.*;
+import java.util.jar.*;
+
+/**
+ * The main class of a worker vm for JarBase&apos;s worker mode. The worker
+ * loads the main class of a jar once and then runs its main method for
+ * each job request read from stdin, so the class loading and JIT warm-up
+ * are shared by all of the jobs.<br/>
+ * <br/>
+ * <pre>
+ * Usage: java -cp &lt;anttask classes&gt; com.duboulder.anttask.JarWorker &lt;jar path&gt;
+ *
+ * Protocol (java.io.DataInput/DataOutput encoding on stdin/stdout):
+ *   request:  int argCount (-1 to stop), argCount UTF strings,
+ *             boolean hasOutput, [UTF output path], boolean append
+ *   response: int exit status (EXITED when the job called
+ *             System.exit), int n, n bytes of captured stdout
+ *             (empty when an output file was given), int n, n bytes
+ *             of captured stderr
+ * </pre>
+ * The job&apos;s System.out and System.err are replaced while it runs,
+ * System.in is empty.
+ * A job calling System.exit ends the worker: a shutdown hook sends the
+ * job&apos;s response with the EXITED status, and the client takes the
+ * status from the worker vm&apos;s exit value. Jobs are run one at a time.
+ */
+public class JarWorker {
+	/** The response status of a job that ended the worker with System.exit */
+	public static final int EXITED = Integer.MIN_VALUE;
+
+	// The running job's captured output, null between jobs
+	private static class ZJob {
+		final ByteArrayOutputStream	outBuf = new ByteArrayOutputStream ();
+		final ByteArrayOutputStream	errBuf = new ByteArrayOutputStream ();
+		OutputStream				jobOut = outBuf;
+	}
+
+	private static volatile ZJob	_current;
+
+	public static void main (String[] args) throws Exception {
+		if (args.length != 1) {
+			System.err.println ("Usage: JarWorker <jar path>");
+			System.exit (2);
+		}
+
+		Method main = zzMainMethod (new File (args[0]));
+		DataInputStream in = new DataInputStream (
+			new BufferedInputStream (new FileInputStream (FileDescriptor.in))
+		);
+		final DataOutputStream out = new DataOutputStream (
+			new BufferedOutputStream (new FileOutputStream (FileDescriptor.out))
+		);
+		// Stray output between jobs must not reach the protocol stream,
+		// and jobs must not read the requests (a forked vm would have
+		// an empty stdin)
+		final PrintStream sysErr = System.err;
+		System.setOut (sysErr);
+		System.setIn (new ByteArrayInputStream (new byte[0]));
+		Runtime.getRuntime ().addShutdownHook (new Thread (new Runnable () {
+			@Override
+			public void run () {
+				ZJob job = _current;
+				if (job == null) return;
+				try {
+					zzFinish (job, sysErr);
+					zzRespond (out, EXITED, job);
+				}
+				catch (IOException e) {} // the client sees the worker end
+			}
+		}, "JarWorker exit"));
+
+		while (true) {
+			int argCount;
+			try {
+				argCount = in.readInt ();
+			}
+			catch (EOFException e) {
+				break;
+			}
+			if (argCount < 0) break;
+
+			String[] jobArgs = new String[argCount];
+			for (int i = 0; i < argCount; i++)
+				jobArgs[i] = in.readUTF ();
+			String oFile = in.readBoolean () ? in.readUTF () : null;
+			boolean append = in.readBoolean ();
+
+			ZJob job = new ZJob ();
+			int status;
+			try {
+				if (oFile != null)
+					job.jobOut = new BufferedOutputStream (new FileOutputStream (oFile, append));
+				System.setOut (new PrintStream (job.jobOut, true));
+				System.setErr (new PrintStream (job.errBuf, true));
+				_current = job;
+				status = zzRun (main, jobArgs);
+			}
+			catch (IOException e) {
+				job.errBuf.write (("Output file error: " + e.getMessage () + "\n").getBytes ());
+				status = 1;
+			}
+			finally {
+				_current = null;
+				zzFinish (job, sysErr);
+			}
+			zzRespond (out, status, job);
+		}
+	}
+
+	// Flush the job's output and restore the worker's streams
+	private static void zzFinish (ZJob job, PrintStream sysErr) {
+		System.out.flush ();
+		System.err.flush ();
+		System.setOut (sysErr);
+		System.setErr (sysErr);
+		if (job.jobOut != job.outBuf) {
+			try { job.jobOut.close (); } catch (Exception e) {};
+		}
+	}
+
+	private static void zzRespond (DataOutputStream out, int status, ZJob job)
+		throws IOException
+	{
+		synchronized (out) {
+			out.writeInt (status);
+			out.writeInt (job.outBuf.size ());
+			job.outBuf.writeTo (out);
+			out.writeInt (job.errBuf.size ());
+			job.errBuf.writeTo (out);
+			out.flush ();
+		}
+	}
+
+	// Run the main method, answer the exit status
+	private static int zzRun (Method main, String[] args) {
+		try {
+			main.invoke (null, (Object) args);
+			return 0;
+		}
+		catch (InvocationTargetException e) {
+			e.getCause ().printStackTrace ();
+			return 1;
+		}
+		catch (Exception e) {
+			e.printStackTrace ();
+			return 1;
+		}
+	}
+
+	private static Method zzMainMethod (File jarFile) throws Exception {
+		String mainClass = null;
+		JarFile jar = new JarFile (jarFile);
+		try {
+			Manifest manifest = jar.getManifest ();
+			if (manifest != null)
+				mainClass = manifest.getMainAttributes ().getValue (Attributes.Name.MAIN_CLASS);
+		}
+		finally {
+			try { jar.close (); } catch (Exception e) {};
+		}
+		if (mainClass == null)
+			throw new IllegalArgumentException (
+				"No Main-Class in the manifest of " + jarFile
+			);
+
+		ClassLoader loader = new URLClassLoader (
+			new URL[] { jarFile.toURI ().toURL () },
+			ClassLoader.getSystemClassLoader ()
+		);
+		Thread.currentThread ().setContextClassLoader (loader);
+		Method main = Class.forName (mainClass.trim (), true, loader).getMethod (
+			"main", String[].class
+		);
+		if (!Modifier.isStatic (main.getModifiers ()))
+			throw new IllegalArgumentException (mainClass + ".main is not static");
+		return main;
+	}
+}
@@ -0,0 +1,275 @@
+package com.duboulder.anttask;
+
+import java.io.*;
+import java.util.*;
+import org.apache.tools.ant.*;
+
+/**
+ * The build-scoped pool of JarWorker vms used by JarBase&apos;s worker
+ * mode. Idle workers are kept per jar file and reused by later jobs,
+ * including jobs of other tasks in the same build. A worker whose job
+ * fails or calls System.exit, or whose vm dies, is discarded and a fresh
+ * one is started for the next job. The workers&apos; stderr is logged as
+ * warnings. All workers are stopped when the build finishes.
+ */
+public class JarWorkerPool {
+	/** The project reference name for the build&apos;s pool */
+	public static final String REFERENCE_NAME = "com.duboulder.anttask.JarWorkerPool";
+
+	/** The result of a job run by a worker */
+	public static class Result {
+		public final int	status;
+		public final byte[]	output;		// captured stdout (empty with an output file)
+		public final byte[]	error;		// captured stderr
+
+		Result (int status, byte[] output, byte[] error) {
+			this.status	= status;
+			this.output	= output;
+			this.error	= error;
+		}
+	}
+
+	private static class ZWorker {
+		final Process			process;
+		final DataOutputStream	out;
+		final DataInputStream	in;
+
+		ZWorker (Process process) {
+			this.process	= process;
+			this.out		= new DataOutputStream (
+				new BufferedOutputStream (process.getOutputStream ())
+			);
+			this.in			= new DataInputStream (
+				new BufferedInputStream (process.getInputStream ())
+			);
+		}
+
+		void stop () {
+			try {
+				out.writeInt (-1);
+				out.flush ();
+			}
+			catch (Exception e) {};
+			try { out.close (); } catch (Exception e) {};
+			try { in.close (); } catch (Exception e) {};
+			process.destroy ();
+		}
+	}
+
+	private final Project							_project;
+	private final Map<String,LinkedList<ZWorker>>	_idle;		// jar path -> idle workers
+	private boolean									_closed;
+
+	private JarWorkerPool (Project project) {
+		_project	= project;
+		_idle		= new HashMap<String,LinkedList<ZWorker>> ();
+		_closed		= false;
+	}
+
+	/**
+	 * Answer the pool for the project, creating it on first use
+	 * @param project the ant project (not null)
+	 * @return the project&apos;s worker pool
+	 */
+	public static JarWorkerPool Get (Project project) {
+		if (project == null)
+			throw new NullPointerException ("project is null");
+		synchronized (project) {
+			Object ref = project.getReference (REFERENCE_NAME);
+			if (ref instanceof JarWorkerPool)
+				return (JarWorkerPool) ref;
+
+			final JarWorkerPool pool = new JarWorkerPool (project);
+			project.addReference (REFERENCE_NAME, pool);
+			project.addBuildListener (new BuildListener () {
+				@Override
+				public void buildStarted (BuildEvent event) {}
+				@Override
+				public void buildFinished (BuildEvent event) { pool.close (); }
+				@Override
+				public void targetStarted (BuildEvent event) {}
+				@Override
+				public void targetFinished (BuildEvent event) {}
+				@Override
+				public void taskStarted (BuildEvent event) {}
+				@Override
+				public void taskFinished (BuildEvent event) {}
+				@Override
+				public void messageLogged (BuildEvent event) {}
+			});
+			return pool;
+		}
+	}
+
+	/**
+	 * Run a job on a worker for the jar, starting a worker if none is idle
+	 * @param jarFile the jar file (not null)
+	 * @param args the jar&apos;s arguments (not null)
+	 * @param oFile the output file path (null to capture the output)
+	 * @param append true to append to the output file
+	 * @return the job result
+	 * @throws IOException if the worker can&apos;t be started or fails
+	 * 		during the job (the worker is discarded)
+	 */
+	public Result run (File jarFile, List<String> args, String oFile, boolean append)
+		throws IOException
+	{
+		String key = jarFile.getAbsolutePath ();
+		ZWorker worker = zzTake (key);
+		if (worker == null)
+			worker = zzStart (jarFile);
+
+		Result result;
+		try {
+			worker.out.writeInt (args.size ());
+			for (String arg : args)
+				worker.out.writeUTF (arg);
+			worker.out.writeBoolean (oFile != null);
+			if (oFile != null)
+				worker.out.writeUTF (oFile);
+			worker.out.writeBoolean (append);
+			worker.out.flush ();
+
+			int status = worker.in.readInt ();
+			byte[] output = zzReadBytes (worker.in);
+			byte[] error = zzReadBytes (worker.in);
+			if (status == JarWorker.EXITED)
+				status = zzExitValue (worker);
+			result = new Result (status, output, error);
+		}
+		catch (IOException e) {
+			worker.stop ();
+			throw new IOException ("Worker vm for " + key + " failed", e);
+		}
+
+		// A failed job may leave the worker's static state damaged,
+		// a job calling System.exit ended the worker
+		if (result.status != 0 || !zzIsAlive (worker))
+			worker.stop ();
+		else
+			zzGiveBack (key, worker);
+		return result;
+	}
+
+	/**
+	 * Stop all of the idle workers. Later jobs start new ones.
+	 */
+	public void close () {
+		List<ZWorker> workers = new ArrayList<ZWorker> ();
+		synchronized (_idle) {
+			_closed = true;
+			for (LinkedList<ZWorker> l : _idle.values ())
+				workers.addAll (l);
+			_idle.clear ();
+		}
+		for (ZWorker worker : workers)
+			worker.stop ();
+	}
+
+	private ZWorker zzTake (String key) {
+		synchronized (_idle) {
+			LinkedList<ZWorker> l = _idle.get (key);
+			while (l != null && !l.isEmpty ()) {
+				ZWorker worker = l.removeFirst ();
+				if (zzIsAlive (worker)) return worker;
+				worker.stop ();
+			}
+			return null;
+		}
+	}
+
+	private void zzGiveBack (String key, ZWorker worker) {
+		synchronized (_idle) {
+			if (!_closed) {
+				LinkedList<ZWorker> l = _idle.get (key);
+				if (l == null) {
+					l = new LinkedList<ZWorker> ();
+					_idle.put (key, l);
+				}
+				l.add (worker);
+				return;
+			}
+		}
+		worker.stop ();
+	}
+
+	private static boolean zzIsAlive (ZWorker worker) {
+		try {
+			worker.process.exitValue ();
+			return false;
+		}
+		catch (IllegalThreadStateException e) {
+			return true;
+		}
+	}
+
+	// Wait for a worker ended by System.exit, answer its exit value
+	private static int zzExitValue (ZWorker worker) throws IOException {
+		try {
+			return worker.process.waitFor ();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread ().interrupt ();
+			throw new IOException ("Interrupted waiting for the worker to exit", e);
+		}
+	}
+
+	private static byte[] zzReadBytes (DataInputStream in) throws IOException {
+		int n = in.readInt ();
+		if (n < 0)
+			throw new IOException ("Bad worker response length " + n);
+		byte[] b = new byte[n];
+		in.readFully (b);
+		return b;
+	}
+
+	private ZWorker zzStart (File jarFile) throws IOException {
+		String javaCmd = System.getProperty ("java.home") + File.separator +
+			"bin" + File.separator + "java";
+		String classPath;
+		try {
+			classPath = new File (
+				JarWorker.class.getProtectionDomain ().getCodeSource ().getLocation ().toURI ()
+			).getAbsolutePath ();
+		}
+		catch (Exception e) {
+			throw new IOException ("The location of the JarWorker class is unknown", e);
+		}
+
+		List<String> cmd = new ArrayList<String> ();
+		cmd.add (javaCmd);
+		cmd.add ("-cp");
+		cmd.add (classPath);
+		cmd.add (JarWorker.class.getName ());
+		cmd.add (jarFile.getAbsolutePath ());
+
+		// Relative job arguments resolve against the project basedir,
+		// as for the vm forked by the java task
+		Process process = new ProcessBuilder (cmd).directory (_project.getBaseDir ()).start ();
+		Thread errPump = new Thread (
+			zzErrorLogger (process.getErrorStream ()), "JarWorker stderr pump"
+		);
+		errPump.setDaemon (true);
+		errPump.start ();
+		return new ZWorker (process);
+	}
+
+	// Answer a runnable logging a worker's stderr lines as warnings
+	private Runnable zzErrorLogger (final InputStream in) {
+		return new Runnable () {
+			@Override
+			public void run () {
+				BufferedReader r = new BufferedReader (new InputStreamReader (in));
+				try {
+					String line;
+					while ((line = r.readLine ()) != null)
+						_project.log ("JarWorker: " + line, Project.MSG_WARN);
+				}
+				catch (IOException e) {}
+				finally {
+					try { r.close (); } catch (Exception e) {};
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,129 @@
+package com.duboulder.anttask;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.taskdefs.MatchingTask;
+
+import com.duboulder.resource.PackedResourceWriter;
+
+/**
+ * Write the files matching the includes/excludes to a pack file
+ * for PackedResourceLoader. The resource path of each file is its
+ * path relative to the base directory (with / separators), after
+ * the optional prefix.<br/>
+ * <br/>
+ * Attributes:<br/>
+ * <div style="padding-left:24pt;">
+ *    basedir - String (required)<br/>
+ *        &nbsp;&nbsp;The root directory for the implicit file set<br/>
+ *    destfile - String (required)<br/>
+ *        &nbsp;&nbsp;The pack file to create or replace<br/>
+ *    prefix - String<br/>
+ *        &nbsp;&nbsp;The text to prepend to each resource path<br/>
+ *    compress - boolean<br/>
+ *        &nbsp;&nbsp;When true, resources are deflated when it makes<br/>
+ *        &nbsp;&nbsp;them smaller (default true)<br/>
+ *    usecache - boolean<br/>
+ *        &nbsp;&nbsp;When true, the scan result is taken from or added to<br/>
+ *        &nbsp;&nbsp;the build&apos;s scan cache (see ScanCache, default false)
+ * </div>
+ * <br/>
+ * Ant build.xml declaration:<br/>
+ * <div style="padding-left:24pt;">
+ *    &lt;taskdef name="packresources" classname="com.duboulder.anttask.PackResources"/&gt;
+ * </div>
+ */
+public class PackResources extends MatchingTask {
+	private File			_baseDir;
+	private File			_destFile;
+	private String			_pathPrefix;
+	private boolean			_compress;
+	private boolean			_useCache;
+
+	public PackResources () {
+		_pathPrefix = "";
+		_compress = true;
+	}
+
+	public File getBaseDir () { return _baseDir; }
+	public void setBaseDir (File baseDir) {
+		if (baseDir == null)
+			throw new BuildException (
+				"baseDir must not be null"
+			);
+		_baseDir = baseDir;
+	}
+
+	public File getDestFile () { return _destFile; }
+	public void setDestFile (File f) { _destFile = f; }
+
+	public String getPrefix () { return _pathPrefix; }
+	public void setPrefix (String str) {
+		_pathPrefix = str;
+		if (_pathPrefix == null) _pathPrefix = "";
+	}
+
+	public boolean getCompress () { return _compress; }
+	public void setCompress (boolean f) { _compress = f; }
+
+	public boolean getUseCache () { return _useCache; }
+	public void setUseCache (boolean f) { _useCache = f; }
+
+	@Override
+	public void execute() throws BuildException {
+		if (_baseDir == null)
+			throw new BuildException ("basedir must be set");
+		if (!_baseDir.isDirectory ())
+			throw new BuildException (
+				"basedir '" + _baseDir.getAbsolutePath () + "' is not a directory"
+			);
+		if (_destFile == null)
+			throw new BuildException ("destfile must be set");
+
+		String[] files = zzIncludedFiles ();
+		PackedResourceWriter writer = new PackedResourceWriter (_compress);
+		for (String relPath : files) {
+			writer.add (
+				_pathPrefix + relPath.replace (File.separatorChar, '/'),
+				new File (_baseDir, relPath)
+			);
+		}
+
+		long length;
+		try {
+			length = writer.write (_destFile);
+		}
+		catch (IOException e) {
+			throw new BuildException (
+				"Error writing pack file '" + _destFile.getAbsolutePath () + "'", e
+			);
+		}
+		log (
+			writer.size () + " resources packed in " + _destFile.getAbsolutePath () +
+				" (" + length + " bytes)",
+			Project.MSG_INFO
+		);
+	}
+
+	// Scan with the directory scanner, or take the result from the
+	// build's scan cache when it is used
+	private String[] zzIncludedFiles () {
+		ScanCache cache = null;
+		String key = null;
+		if (_useCache) {
+			cache = ScanCache.Get (getProject ());
+			key = ScanCache.Key (_baseDir, fileset, getProject ());
+			if (key != null) {
+				String[] files = cache.getIncludedFiles (key);
+				if (files != null) return files;
+			}
+		}
+
+		String[] files = getDirectoryScanner (_baseDir).getIncludedFiles ();
+		if (key != null)
+			cache.putIncludedFiles (key, _baseDir, files);
+		return files;
+	}
+}
@@ -0,0 +1,221 @@
+package com.duboulder.anttask;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+/**
+ * A directory tree walker that lists the directories on a fork-join
+ * pool and matches the relative file paths with Ant include and exclude
+ * patterns, like DirectoryScanner. The included files are passed to a
+ * visitor on the calling thread as soon as the walk has reached them,
+ * in a deterministic order: depth first, with the entries of each
+ * directory in name order.<br/>
+ * <br/>
+ * Directories that can&apos;t hold included files, or whose whole
+ * content is excluded by a pattern ending in **, are not listed.
+ * Selectors are not supported.
+ */
+public class ParallelDirWalker {
+	/** Receives the relative paths of the included files */
+	public interface Visitor {
+		void visit (String relPath) throws IOException;
+	}
+
+	// The listing of one directory, the subdirectories are
+	// listed by their own forked tasks
+	private class ZDirTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final File		dir;
+		final String	relDir;		// "" or ends with a separator
+		List<Object>	items;		// relative file paths and ZDirTasks, in order
+
+		ZDirTask (File dir, String relDir) {
+			this.dir	= dir;
+			this.relDir	= relDir;
+		}
+
+		@Override
+		protected void compute () {
+			String[] names = dir.list ();
+			items = new ArrayList<Object> ();
+			if (names == null) {
+				_unreadable.add (dir.getAbsolutePath ());
+				return;
+			}
+			Arrays.sort (names);
+
+			for (String name : names) {
+				File f = new File (dir, name);
+				String relPath = relDir + name;
+				if (!_followSymlinks && Files.isSymbolicLink (f.toPath ()))
+					continue;
+
+				if (f.isDirectory ()) {
+					if (!zzCouldHoldIncluded (relPath) || zzIsExcludedDir (relPath))
+						continue;
+					ZDirTask sub = new ZDirTask (f, relPath + File.separator);
+					sub.fork ();
+					items.add (sub);
+				}
+				else if (zzIsIncluded (relPath)) {
+					items.add (relPath);
+				}
+			}
+		}
+	}
+
+	private final File			_baseDir;
+	private final String[]		_includes;
+	private final String[]		_excludes;
+	private final boolean		_caseSensitive;
+	private final boolean		_followSymlinks;
+	private final List<String>	_unreadable;
+
+	/**
+	 * Create a walker for a directory with the specified patterns
+	 * @param baseDir the root of the walk (not null)
+	 * @param includes the include patterns (null or empty for all files)
+	 * @param excludes the exclude patterns (may be null)
+	 * @param caseSensitive true for case sensitive matching
+	 * @param followSymlinks false to skip symbolic links
+	 */
+	public ParallelDirWalker (
+		File baseDir, String[] includes, String[] excludes,
+		boolean caseSensitive, boolean followSymlinks
+	) {
+		if (baseDir == null)
+			throw new NullPointerException ("baseDir is null");
+		_baseDir		= baseDir;
+		_includes		= zzNormalize (
+			(includes == null || includes.length == 0) ? new String[] { "**" } : includes
+		);
+		_excludes		= zzNormalize (excludes == null ? new String[0] : excludes);
+		_caseSensitive	= caseSensitive;
+		_followSymlinks	= followSymlinks;
+		_unreadable		= Collections.synchronizedList (new ArrayList<String> ());
+	}
+
+	/**
+	 * Create a walker using the patterns of a file set, including the
+	 * default excludes when they are enabled.
+	 * @param baseDir the root of the walk (not null)
+	 * @param fileset the file set with the patterns (not null, no selectors)
+	 * @param project the project for resolving the patterns
+	 * @return the walker
+	 */
+	public static ParallelDirWalker ForFileSet (File baseDir, FileSet fileset, Project project) {
+		if (fileset.hasSelectors ())
+			throw new IllegalArgumentException ("file set selectors are not supported");
+		List<String> excludes = new ArrayList<String> ();
+		String[] ex = fileset.mergeExcludes (project);
+		if (ex != null) excludes.addAll (Arrays.asList (ex));
+		if (fileset.getDefaultexcludes ())
+			excludes.addAll (Arrays.asList (DirectoryScanner.getDefaultExcludes ()));
+		return new ParallelDirWalker (
+			baseDir, fileset.mergeIncludes (project),
+			excludes.toArray (new String[excludes.size ()]),
+			fileset.isCaseSensitive (), fileset.isFollowSymlinks ()
+		);
+	}
+
+	/**
+	 * The directories that could not be listed by the last walk
+	 * @return the absolute directory paths
+	 */
+	public List<String> getUnreadableDirs () {
+		synchronized (_unreadable) {
+			return new ArrayList<String> (_unreadable);
+		}
+	}
+
+	/**
+	 * Walk the tree and pass the included files to the visitor
+	 * @param threads the number of listing threads (&gt;= 1)
+	 * @param visitor the receiver of the relative paths (not null)
+	 * @throws IOException if the visitor fails
+	 */
+	public void walk (int threads, Visitor visitor) throws IOException {
+		if (threads < 1)
+			throw new IllegalArgumentException ("threads must be >= 1");
+		_unreadable.clear ();
+
+		ForkJoinPool pool = new ForkJoinPool (threads);
+		try {
+			ZDirTask root = new ZDirTask (_baseDir, "");
+			pool.execute (root);
+			zzVisit (root, visitor);
+		}
+		finally {
+			pool.shutdownNow ();
+		}
+	}
+
+	// Visit a directory's results in order, releasing them once visited
+	private void zzVisit (ZDirTask task, Visitor visitor) throws IOException {
+		task.join ();
+		List<Object> items = task.items;
+		task.items = null;
+		for (Object item : items) {
+			if (item instanceof ZDirTask)
+				zzVisit ((ZDirTask) item, visitor);
+			else
+				visitor.visit ((String) item);
+		}
+	}
+
+	private boolean zzIsIncluded (String relPath) {
+		boolean included = false;
+		for (String p : _includes) {
+			if (SelectorUtils.matchPath (p, relPath, _caseSensitive)) {
+				included = true;
+				break;
+			}
+		}
+		if (!included) return false;
+		for (String p : _excludes) {
+			if (SelectorUtils.matchPath (p, relPath, _caseSensitive))
+				return false;
+		}
+		return true;
+	}
+
+	private boolean zzCouldHoldIncluded (String relDir) {
+		for (String p : _includes) {
+			if (SelectorUtils.matchPatternStart (p, relDir, _caseSensitive))
+				return true;
+		}
+		return false;
+	}
+
+	// A directory is skipped when an exclude pattern ending in **
+	// matches it, since it then matches all of its content
+	private boolean zzIsExcludedDir (String relDir) {
+		String deep = File.separator + "**";
+		for (String p : _excludes) {
+			if (p.endsWith (deep) && SelectorUtils.matchPath (p, relDir, _caseSensitive))
+				return true;
+		}
+		return false;
+	}
+
+	// Use the platform separator and treat a trailing separator as
+	// a shorthand for **, like DirectoryScanner
+	private static String[] zzNormalize (String[] patterns) {
+		String[] result = new String[patterns.length];
+		for (int i = 0; i < patterns.length; i++) {
+			String p = patterns[i].replace ('/', File.separatorChar)
+				.replace ('\\', File.separatorChar);
+			if (p.endsWith (File.separator))
+				p += "**";
+			result[i] = p;
+		}
+		return result;
+	}
+}
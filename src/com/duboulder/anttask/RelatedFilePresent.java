@@ -27,22 +27,34 @@ import org.apache.tools.ant.types.selectors.*;
 &lt;/fileset&gt;<br/>
 <br/>
  * If this fileset is included in subant task, only build.xml files 
- * that have a companion javadoc.xml file will be selected.
+ * that have a companion javadoc.xml file will be selected.<br/>
+ * <br/>
+ * With the optional cache parameter set to true, the existence of the
+ * related file is checked once per directory and kept in the build&apos;s
+ * scan cache (see ScanCache), shared by later selections, so related
+ * files created later in the build are not seen. Otherwise (the default)
+ * it is checked for each selected file.
  */
 public class RelatedFilePresent extends BaseExtendSelector {
 	// NOTE: the selector is is reused
 	private String			_relatedFile;
+	private boolean			_useCache = false;
 
 	@Override
 	public void setParameters(Parameter[] parameters) {
 		// Reset state
 		_relatedFile = null;
+		_useCache = false;
 
 		// Execution environment is setting the parameters that
 		// have been specified in the ant file
 		if (parameters == null) return;
 		for (Parameter parameter : parameters) {
 			if (parameter == null) continue;
+			if (parameter.getName ().equals ("cache")) {
+				_useCache = Boolean.valueOf (parameter.getValue ());
+				continue;
+			}
 			if (!parameter.getName ().equals ("relatedFile"))
 				throw new BuildException (
 					"unsupported parameter '" + parameter.getName () + "'"
@@ -78,7 +90,10 @@ public class RelatedFilePresent extends BaseExtendSelector {
 		String relatedName = baseDir.getPath() + File.separator +  
 			(i < 0 ? filename : filename.substring (0, i)) +
 			File.separator + _relatedFile;
+		File related = new File (relatedName);
 
-		return new File (relatedName).exists ();
+		if (_useCache && getProject () != null)
+			return ScanCache.Get (getProject ()).exists (related);
+		return related.exists ();
 	}
 }
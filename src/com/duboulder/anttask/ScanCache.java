@@ -0,0 +1,161 @@
+package com.duboulder.anttask;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import org.apache.tools.ant.*;
+import org.apache.tools.ant.types.FileSet;
+
+/**
+ * A build-scoped cache of directory scan results and file existence
+ * checks, shared by the tasks and selectors of a build through a project
+ * reference. Scans of file sets with selectors are not cached, since the
+ * selection can depend on more than the file names.<br/>
+ * <br/>
+ * The cache is not refreshed by itself. Targets that create or delete
+ * files in a cached tree should invalidate it with the clearscancache
+ * task (see ClearScanCache), or run the scanning task with the cache off.
+ */
+public class ScanCache {
+	/** The project reference name for the build&apos;s cache */
+	public static final String REFERENCE_NAME = "com.duboulder.anttask.ScanCache";
+
+	private static class ZScan {
+		final String	dirPath;
+		final String[]	files;
+
+		ZScan (String dirPath, String[] files) {
+			this.dirPath	= dirPath;
+			this.files		= files;
+		}
+	}
+
+	private final ConcurrentHashMap<String,ZScan>	_scans;		// scan key -> included files
+	private final ConcurrentHashMap<String,Boolean>	_exists;	// absolute path -> existence
+
+	private ScanCache () {
+		_scans	= new ConcurrentHashMap<String,ZScan> ();
+		_exists	= new ConcurrentHashMap<String,Boolean> ();
+	}
+
+	/**
+	 * Answer the cache for the project, creating it on first use
+	 * @param project the ant project (not null)
+	 * @return the project&apos;s scan cache
+	 */
+	public static ScanCache Get (Project project) {
+		if (project == null)
+			throw new NullPointerException ("project is null");
+		synchronized (project) {
+			Object ref = project.getReference (REFERENCE_NAME);
+			if (ref instanceof ScanCache)
+				return (ScanCache) ref;
+			ScanCache cache = new ScanCache ();
+			project.addReference (REFERENCE_NAME, cache);
+			return cache;
+		}
+	}
+
+	/**
+	 * Answer the cache key for scanning a directory with a file set&apos;s
+	 * patterns
+	 * @param baseDir the scanned directory (not null)
+	 * @param fileset the file set with the patterns (not null)
+	 * @param project the project for resolving the patterns
+	 * @return the key, or null when the scan can&apos;t be cached
+	 */
+	public static String Key (File baseDir, FileSet fileset, Project project) {
+		if (fileset.hasSelectors ()) return null;
+
+		StringBuilder sb = new StringBuilder ();
+		sb.append (baseDir.getAbsolutePath ());
+		sb.append ("\n+").append (Arrays.toString (fileset.mergeIncludes (project)));
+		sb.append ("\n-").append (Arrays.toString (fileset.mergeExcludes (project)));
+		if (fileset.getDefaultexcludes ())
+			sb.append ("\n-").append (Arrays.toString (DirectoryScanner.getDefaultExcludes ()));
+		sb.append ('\n').append (fileset.isCaseSensitive ());
+		sb.append ('\n').append (fileset.isFollowSymlinks ());
+		return sb.toString ();
+	}
+
+	/**
+	 * Answer the cached included files for a scan key
+	 * @param key the scan key (from Key)
+	 * @return a copy of the relative paths of the included files, or null
+	 * 		when the scan is not cached
+	 */
+	public String[] getIncludedFiles (String key) {
+		ZScan scan = _scans.get (key);
+		return scan == null ? null : scan.files.clone ();
+	}
+
+	/**
+	 * Cache the included files for a scan key
+	 * @param key the scan key (from Key)
+	 * @param baseDir the scanned directory
+	 * @param files the relative paths of the included files
+	 */
+	public void putIncludedFiles (String key, File baseDir, String[] files) {
+		_scans.put (key, new ZScan (zzDirPath (baseDir), files.clone ()));
+	}
+
+	/**
+	 * Answer whether a file exists, the result is cached
+	 * @param file the file to check
+	 * @return true when the file existed on the first check
+	 */
+	public boolean exists (File file) {
+		String path = file.getAbsolutePath ();
+		Boolean f = _exists.get (path);
+		if (f == null) {
+			f = file.exists ();
+			_exists.put (path, f);
+		}
+		return f;
+	}
+
+	/**
+	 * Remove the cached results affected by changes in a directory tree:
+	 * the scans of the directory&apos;s ancestors and descendants and the
+	 * existence checks within it.
+	 * @param dir the changed directory tree (not null)
+	 * @return the number of cached scans removed
+	 */
+	public int invalidate (File dir) {
+		if (dir == null)
+			throw new NullPointerException ("dir is null");
+		String dirPath = zzDirPath (dir);
+
+		int n = 0;
+		Iterator<ZScan> scans = _scans.values ().iterator ();
+		while (scans.hasNext ()) {
+			ZScan scan = scans.next ();
+			if (scan.dirPath.startsWith (dirPath) || dirPath.startsWith (scan.dirPath)) {
+				scans.remove ();
+				n++;
+			}
+		}
+		Iterator<String> paths = _exists.keySet ().iterator ();
+		while (paths.hasNext ()) {
+			if (paths.next ().startsWith (dirPath)) paths.remove ();
+		}
+		return n;
+	}
+
+	/**
+	 * Remove all of the cached results
+	 */
+	public void clear () {
+		_scans.clear ();
+		_exists.clear ();
+	}
+
+	// The absolute directory path with a trailing separator, so
+	// prefix tests don't match sibling directories
+	private static String zzDirPath (File dir) {
+		String path = dir.getAbsolutePath ();
+		if (!path.endsWith (File.separator))
+			path += File.separator;
+		return path;
+	}
+}
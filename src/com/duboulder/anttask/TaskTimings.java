@@ -0,0 +1,203 @@
+package com.duboulder.anttask;
+
+import java.io.*;
+import java.util.*;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+
+/**
+ * Execution timings for the file processing tasks. The tasks add an
+ * entry for each processed item (a file, a batch or a whole scan) with
+ * its wall time, the estimated vm start-up time for forked executions
+ * and the bytes read and written. The report is a summary in the build
+ * log with the totals and the slowest entries, and optionally a JSON
+ * file with all of the entries.<br/>
+ * <br/>
+ * Entries can be added from several threads.
+ */
+public class TaskTimings {
+	/** The timings of one processed item */
+	public static class Entry {
+		public final String		item;
+		public final int		files;
+		public final long		wallNanos;
+		public final long		forkNanos;
+		public final long		bytesIn;
+		public final long		bytesOut;
+		public final boolean	ok;
+
+		Entry (
+			String item, int files, long wallNanos, long forkNanos,
+			long bytesIn, long bytesOut, boolean ok
+		) {
+			this.item		= item;
+			this.files		= files;
+			this.wallNanos	= wallNanos;
+			this.forkNanos	= forkNanos;
+			this.bytesIn	= bytesIn;
+			this.bytesOut	= bytesOut;
+			this.ok			= ok;
+		}
+	}
+
+	private final String		_taskName;
+	private final long			_startNanos;
+	private final List<Entry>	_entries;
+
+	/**
+	 * Start collecting timings, the elapsed time is measured from here
+	 * @param taskName the task name for the report
+	 */
+	public TaskTimings (String taskName) {
+		_taskName	= taskName;
+		_startNanos	= System.nanoTime ();
+		_entries	= new ArrayList<Entry> ();
+	}
+
+	/**
+	 * Add the timings of a processed item
+	 * @param item the item name (e.g. the source file path)
+	 * @param files the number of files processed for the item
+	 * @param wallNanos the wall time in nanoseconds
+	 * @param forkNanos the estimated vm start-up part of the wall time (0 if none)
+	 * @param bytesIn the bytes read
+	 * @param bytesOut the bytes written
+	 * @param ok false if the processing failed
+	 */
+	public void add (
+		String item, int files, long wallNanos, long forkNanos,
+		long bytesIn, long bytesOut, boolean ok
+	) {
+		Entry entry = new Entry (item, files, wallNanos, forkNanos, bytesIn, bytesOut, ok);
+		synchronized (_entries) {
+			_entries.add (entry);
+		}
+	}
+
+	/**
+	 * Log the summary and write the JSON report
+	 * @param task the task to log with
+	 * @param slowest the number of slowest entries to log
+	 * @param jsonFile the JSON report file (may be null)
+	 * @throws BuildException if the JSON file can&apos;t be written
+	 */
+	public void report (Task task, int slowest, File jsonFile) throws BuildException {
+		long elapsed = System.nanoTime () - _startNanos;
+		List<Entry> entries;
+		synchronized (_entries) {
+			entries = new ArrayList<Entry> (_entries);
+		}
+
+		int files = 0, failed = 0;
+		long wall = 0, fork = 0, bytesIn = 0, bytesOut = 0;
+		for (Entry e : entries) {
+			files += e.files;
+			if (!e.ok) failed++;
+			wall += e.wallNanos;
+			fork += e.forkNanos;
+			bytesIn += e.bytesIn;
+			bytesOut += e.bytesOut;
+		}
+
+		StringBuilder sb = new StringBuilder ();
+		sb.append ("timings: ").append (entries.size ()).append (" items, ");
+		sb.append (files).append (" files");
+		if (failed != 0) sb.append (", ").append (failed).append (" failed");
+		sb.append ("\n    elapsed ").append (zzMillis (elapsed)).append (" ms");
+		sb.append (", wall ").append (zzMillis (wall)).append (" ms");
+		if (fork != 0)
+			sb.append (", vm start-up ~").append (zzMillis (fork)).append (" ms");
+		sb.append ("\n    in ").append (bytesIn).append (" bytes");
+		sb.append (", out ").append (bytesOut).append (" bytes");
+		if (elapsed > 0) {
+			double secs = elapsed / 1e9;
+			sb.append (String.format (
+				", %.1f files/s, %.1f KB/s", files / secs, (bytesIn + bytesOut) / 1024.0 / secs
+			));
+		}
+
+		if (slowest > 0 && !entries.isEmpty ()) {
+			List<Entry> sorted = new ArrayList<Entry> (entries);
+			Collections.sort (sorted, new Comparator<Entry> () {
+				@Override
+				public int compare (Entry a, Entry b) {
+					return a.wallNanos < b.wallNanos ? 1 : (a.wallNanos > b.wallNanos ? -1 : 0);
+				}
+			});
+			sb.append ("\n    slowest:");
+			for (int i = 0; i < slowest && i < sorted.size (); i++) {
+				Entry e = sorted.get (i);
+				sb.append (String.format ("\n    %8d ms  ", zzMillis (e.wallNanos)));
+				sb.append (e.item);
+			}
+		}
+		task.log (sb.toString (), Project.MSG_INFO);
+
+		if (jsonFile != null)
+			zzWriteJson (jsonFile, entries, elapsed);
+	}
+
+	private void zzWriteJson (File jsonFile, List<Entry> entries, long elapsed)
+		throws BuildException
+	{
+		Writer out = null;
+		try {
+			out = new BufferedWriter (
+				new OutputStreamWriter (new FileOutputStream (jsonFile), "UTF-8")
+			);
+			out.write ("{\n  \"task\": ");
+			out.write (zzJsonString (_taskName));
+			out.write (",\n  \"elapsedMs\": " + zzMillis (elapsed));
+			out.write (",\n  \"entries\": [");
+			for (int i = 0; i < entries.size (); i++) {
+				Entry e = entries.get (i);
+				out.write (i == 0 ? "\n    " : ",\n    ");
+				out.write ("{\"item\": " + zzJsonString (e.item));
+				out.write (", \"files\": " + e.files);
+				out.write (", \"wallMs\": " + zzMillis (e.wallNanos));
+				out.write (", \"forkMs\": " + zzMillis (e.forkNanos));
+				out.write (", \"bytesIn\": " + e.bytesIn);
+				out.write (", \"bytesOut\": " + e.bytesOut);
+				out.write (", \"ok\": " + e.ok + "}");
+			}
+			out.write ("\n  ]\n}\n");
+			out.close ();
+			out = null;
+		}
+		catch (IOException e) {
+			throw new BuildException (
+				"Error writing timings file '" + jsonFile.getAbsolutePath () + "'", e
+			);
+		}
+		finally {
+			try { if (out != null) out.close (); } catch (Exception e1) {};
+		}
+	}
+
+	private static long zzMillis (long nanos) {
+		return nanos / 1000000L;
+	}
+
+	private static String zzJsonString (String s) {
+		if (s == null) return "null";
+		StringBuilder sb = new StringBuilder (s.length () + 2);
+		sb.append ('"');
+		for (int i = 0; i < s.length (); i++) {
+			char c = s.charAt (i);
+			switch (c) {
+			case '"':	sb.append ("\\\""); break;
+			case '\\':	sb.append ("\\\\"); break;
+			case '\n':	sb.append ("\\n"); break;
+			case '\r':	sb.append ("\\r"); break;
+			case '\t':	sb.append ("\\t"); break;
+			default:
+				if (c < 0x20)
+					sb.append (String.format ("\\u%04x", (int) c));
+				else
+					sb.append (c);
+			}
+		}
+		return sb.append ('"').toString ();
+	}
+}
@@ -0,0 +1,203 @@
+package com.duboulder.anttask;
+
+import java.io.*;
+import java.security.*;
+import java.util.*;
+import org.apache.tools.ant.BuildException;
+
+/**
+ * Up-to-date checks for the incremental mode of the file processing tasks.
+ * A source file is up to date when its destination exists and:<br/>
+ * <br/>
+ * <pre>
+ *   timestamp check - the destination is not older than the source
+ *   hash check      - the source content hash matches the one recorded
+ *                     when the destination was last made
+ * </pre>
+ * When a manifest file is used, the signature of the processing (e.g. the
+ * argument list) is recorded for each source file as well, and a source
+ * file whose signature has changed is processed again. The hash check
+ * requires a manifest file.<br/>
+ * <br/>
+ * The manifest is a properties file mapping the absolute source path to
+ * the signature digest followed by the content digest in hash mode.
+ */
+public class UpToDateManifest {
+	public static final String TIMESTAMP	= "timestamp";
+	public static final String HASH			= "hash";
+
+	private final File					_file;		// may be null
+	private final boolean				_hashMode;
+	private final Properties			_entries;
+	private final Map<String,String>	_hashes;	// src path -> content digest
+	private boolean						_changed;
+
+	/**
+	 * Load the manifest, a missing manifest file is treated as empty.
+	 * @param file the manifest file (may be null for timestamp checks only)
+	 * @param check TIMESTAMP or HASH
+	 * @throws BuildException for an unknown check type, a hash check without
+	 * 		manifest file or a manifest read error
+	 */
+	public UpToDateManifest (File file, String check) throws BuildException {
+		if (!TIMESTAMP.equals (check) && !HASH.equals (check))
+			throw new BuildException (
+				"up-to-date check must be '" + TIMESTAMP + "' or '" + HASH + "'"
+			);
+		_hashMode = HASH.equals (check);
+		if (_hashMode && file == null)
+			throw new BuildException ("the hash up-to-date check requires a manifest file");
+
+		_file		= file;
+		_entries	= new Properties ();
+		_hashes		= new HashMap<String,String> ();
+		_changed	= false;
+
+		if (_file == null || !_file.exists ()) return;
+		InputStream in = null;
+		try {
+			in = new BufferedInputStream (new FileInputStream (_file));
+			_entries.load (in);
+		}
+		catch (IOException e) {
+			throw new BuildException (
+				"Error reading manifest '" + _file.getAbsolutePath () + "'", e
+			);
+		}
+		finally {
+			try { if (in != null) in.close (); } catch (Exception e1) {};
+		}
+	}
+
+	/**
+	 * Answer whether the destination of a source file is up to date
+	 * @param srcFile the absolute source file path
+	 * @param destFile the absolute destination file path
+	 * @param signature the text identifying how the file is processed
+	 * @return true when the source file does not need processing
+	 * @throws BuildException if the source file can&apos;t be read in hash mode
+	 */
+	public synchronized boolean isUpToDate (String srcFile, String destFile, String signature)
+		throws BuildException
+	{
+		File src = new File (srcFile);
+		File dest = new File (destFile);
+		if (!dest.isFile ()) return false;
+		if (!_hashMode && dest.lastModified () < src.lastModified ())
+			return false;
+		if (_file == null) return true;
+
+		String entry = _entries.getProperty (srcFile);
+		if (entry == null) return false;
+		return entry.equals (zzEntry (srcFile, signature));
+	}
+
+	/**
+	 * Record the successful processing of a source file
+	 * @param srcFile the absolute source file path
+	 * @param signature the text identifying how the file was processed
+	 * @throws BuildException if the source file can&apos;t be read in hash mode
+	 */
+	public synchronized void record (String srcFile, String signature) throws BuildException {
+		if (_file == null) return;
+		_entries.setProperty (srcFile, zzEntry (srcFile, signature));
+		_changed = true;
+	}
+
+	/**
+	 * Forget a source file, so it is processed by the next run
+	 * @param srcFile the absolute source file path
+	 */
+	public synchronized void remove (String srcFile) {
+		if (_file == null) return;
+		if (_entries.remove (srcFile) != null) _changed = true;
+	}
+
+	/**
+	 * Write the manifest file if it has changed
+	 * @throws BuildException if the manifest can&apos;t be written
+	 */
+	public synchronized void save () throws BuildException {
+		if (_file == null || !_changed) return;
+		OutputStream out = null;
+		try {
+			out = new BufferedOutputStream (new FileOutputStream (_file));
+			_entries.store (out, "up-to-date manifest");
+			_changed = false;
+		}
+		catch (IOException e) {
+			throw new BuildException (
+				"Error writing manifest '" + _file.getAbsolutePath () + "'", e
+			);
+		}
+		finally {
+			try { if (out != null) out.close (); } catch (Exception e1) {};
+		}
+	}
+
+	/**
+	 * Answer the hex SHA-1 digest of a text
+	 * @param text the text to digest (not null)
+	 * @return the digest
+	 */
+	public static String Digest (String text) {
+		MessageDigest md = zzSha1 ();
+		try {
+			md.update (text.getBytes ("UTF-8"));
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new Error ("UTF-8 is not supported", e);
+		}
+		return zzHex (md.digest ());
+	}
+
+	private String zzEntry (String srcFile, String signature) throws BuildException {
+		String entry = Digest (signature);
+		if (_hashMode)
+			entry += " " + zzContentDigest (srcFile);
+		return entry;
+	}
+
+	// The content digest is computed once per run for each source file
+	private String zzContentDigest (String srcFile) throws BuildException {
+		String digest = _hashes.get (srcFile);
+		if (digest != null) return digest;
+
+		MessageDigest md = zzSha1 ();
+		InputStream in = null;
+		try {
+			in = new FileInputStream (srcFile);
+			byte[] buf = new byte[65536];
+			int n;
+			while ((n = in.read (buf)) > 0)
+				md.update (buf, 0, n);
+		}
+		catch (IOException e) {
+			throw new BuildException ("Error reading file '" + srcFile + "'", e);
+		}
+		finally {
+			try { if (in != null) in.close (); } catch (Exception e1) {};
+		}
+		digest = zzHex (md.digest ());
+		_hashes.put (srcFile, digest);
+		return digest;
+	}
+
+	private static MessageDigest zzSha1 () {
+		try {
+			return MessageDigest.getInstance ("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new Error ("SHA-1 is not supported", e);
+		}
+	}
+
+	private static String zzHex (byte[] b) {
+		StringBuilder sb = new StringBuilder (b.length * 2);
+		for (byte x : b) {
+			sb.append (Character.forDigit ((x >> 4) & 0xf, 16));
+			sb.append (Character.forDigit (x & 0xf, 16));
+		}
+		return sb.toString ();
+	}
+}
@@ -1,15 +1,22 @@
 package com.duboulder.anttask;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 
 import java.io.File;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
@@ -40,6 +47,28 @@ import org.apache.tools.ant.types.LogLevel;
  *       &nbsp;&nbsp;are written. The sub directory structure of the source<br/>
  *       &nbsp;&nbsp;tree is preserved in the destination.<br/>
  *   verbose - boolean controlling verbose output<br/>
+ *   incremental - boolean (default false)<br/>
+ *       &nbsp;&nbsp;When true, templates whose destination is up to date<br/>
+ *       &nbsp;&nbsp;are skipped.<br/>
+ *   uptodatecheck - timestamp | hash (default timestamp)<br/>
+ *       &nbsp;&nbsp;timestamp: the destination is up to date when it is not<br/>
+ *       &nbsp;&nbsp;older than the source. hash: the destination is up to date<br/>
+ *       &nbsp;&nbsp;when the source content is unchanged (requires manifest).<br/>
+ *   manifest - file path<br/>
+ *       &nbsp;&nbsp;Optional file recording the processed templates, so<br/>
+ *       &nbsp;&nbsp;changes of the trimming rules or source content are<br/>
+ *       &nbsp;&nbsp;detected (see UpToDateManifest).<br/>
+ *   threads - int (default 1)<br/>
+ *       &nbsp;&nbsp;The number of templates transformed at the same time.<br/>
+ *   timings - boolean (default false)<br/>
+ *       &nbsp;&nbsp;When true, a summary of the transformation times, the<br/>
+ *       &nbsp;&nbsp;bytes read and written and the slowest templates is logged<br/>
+ *       &nbsp;&nbsp;(see TaskTimings).<br/>
+ *   timingsfile - file path<br/>
+ *       &nbsp;&nbsp;Optional JSON file for the timings of all of the templates<br/>
+ *       &nbsp;&nbsp;(turns timings on).<br/>
+ *   slowest - int (default 10)<br/>
+ *       &nbsp;&nbsp;The number of slowest templates in the timings summary.<br/>
  * </div>
  * <br/>
  * Contained elements: <br/>
@@ -49,6 +78,17 @@ public class VTDirectiveTrim extends MatchingTask {
 	protected File			_srcDir;
 	protected File			_destDir;
 	protected boolean		_verbose;
+	protected boolean		_incremental;
+	protected String		_upToDateCheck = UpToDateManifest.TIMESTAMP;
+	protected File			_manifestFile;
+	protected int			_threads = 1;
+	protected boolean		_timingsEnabled;
+	protected File			_timingsFile;
+	protected int			_slowest = 10;
+
+	// Identifies the trimming rules in the manifest, change it when
+	// the transformation changes
+	protected static final String SIGNATURE = "VTDirectiveTrim 1";
 	
 	protected static final Pattern DOUBLE_HASH =
 		Pattern.compile ("\\s*##");
@@ -57,6 +97,13 @@ public class VTDirectiveTrim extends MatchingTask {
 	protected static final Pattern HASH_WORD =
 		Pattern.compile ("\\s*#\\w");
 
+	// Line classes - zClassify is equivalent to checking the
+	// patterns above in order
+	protected static final int LINE_TEXT		= 0;
+	protected static final int LINE_COMMENT		= 1;	// DOUBLE_HASH
+	protected static final int LINE_LITERAL		= 2;	// HASH_SPACE
+	protected static final int LINE_DIRECTIVE	= 3;	// HASH_WORD
+
 	public File getSrcDir () { return _srcDir; }
 	public void setSrcDir (File baseDir) {
 		if (baseDir == null)
@@ -78,6 +125,38 @@ public class VTDirectiveTrim extends MatchingTask {
 	public boolean getVerbose () { return _verbose; }
 	public void setVerbose (boolean f) { _verbose = f; }
 
+	public boolean getIncremental () { return _incremental; }
+	public void setIncremental (boolean f) { _incremental = f; }
+
+	public String getUpToDateCheck () { return _upToDateCheck; }
+	public void setUpToDateCheck (String check) {
+		if (!UpToDateManifest.TIMESTAMP.equals (check) &&
+			!UpToDateManifest.HASH.equals (check))
+			throw new BuildException (
+				"uptodatecheck must be 'timestamp' or 'hash'"
+			);
+		_upToDateCheck = check;
+	}
+
+	public File getManifest () { return _manifestFile; }
+	public void setManifest (File f) { _manifestFile = f; }
+
+	public int getThreads () { return _threads; }
+	public void setThreads (int n) {
+		if (n < 1)
+			throw new BuildException ("threads must be >= 1");
+		_threads = n;
+	}
+
+	public boolean getTimings () { return _timingsEnabled; }
+	public void setTimings (boolean f) { _timingsEnabled = f; }
+
+	public File getTimingsFile () { return _timingsFile; }
+	public void setTimingsFile (File f) { _timingsFile = f; }
+
+	public int getSlowest () { return _slowest; }
+	public void setSlowest (int n) { _slowest = n; }
+
 	@Override
 	public void execute() throws BuildException {
 		// Check the attributes
@@ -119,37 +198,218 @@ public class VTDirectiveTrim extends MatchingTask {
 			);
 		}
 
+		TaskTimings timings = null;
+		if (_timingsEnabled || _timingsFile != null)
+			timings = new TaskTimings ("VTDirectiveTrim");
+
+		UpToDateManifest manifest = null;
+		if (_incremental)
+			manifest = new UpToDateManifest (_manifestFile, _upToDateCheck);
+		int upToDateCount = 0;
+		List<String[]> pending = new ArrayList<String[]> (); // parallel mode
+
 		for (String relPath : files) {
+			String src = _srcDir.getAbsolutePath () + File.separator + relPath;
+			String dest = _destDir.getAbsolutePath () + File.separator + relPath;
+			if (manifest != null && manifest.isUpToDate (src, dest, SIGNATURE)) {
+				upToDateCount++;
+				continue;
+			}
+
 			if (_verbose)
 				log (relPath);
 			
-			String dest = _destDir.getAbsolutePath () + File.separator + relPath;
 			makeDestDir (dest);
 
-			zTransform (
-				_srcDir.getAbsolutePath () + File.separator + relPath, dest
-			);
+			if (_threads > 1) {
+				pending.add (new String[] { src, dest });
+				continue;
+			}
+			zzTimedTransform (src, dest, timings);
+			if (manifest != null)
+				manifest.record (src, SIGNATURE);
 		}
+
+		if (!pending.isEmpty ())
+			zzTransformAll (pending, manifest, timings);
+
+		if (manifest != null) {
+			manifest.save ();
+			if (upToDateCount != 0)
+				log (upToDateCount + " files up to date");
+		}
+		if (timings != null)
+			timings.report (this, _slowest, _timingsFile);
 	}
 	
 	private final void zTransform (String src, String dest)
 		throws BuildException
 	{
-		// Input file
-		BufferedReader srcFile = null;
+		Charset charset = Charset.defaultCharset ();
+		CharBuffer in = charset.decode (zzRead (src));
+		char[] text = in.array ();
+		int i = in.arrayOffset () + in.position ();
+		int end = in.arrayOffset () + in.limit ();
+		String eol = System.getProperty ("line.separator");
+		StringBuilder out = new StringBuilder (end - i + 256);
+
+		// Process the lines (terminated by \n, \r or \r\n)
+		while (i < end) {
+			int lineStart = i;
+			while (i < end && text[i] != '\n' && text[i] != '\r') i++;
+			int lineEnd = i;
+			if (i < end) {
+				if (text[i] == '\r' && i + 1 < end && text[i + 1] == '\n') i += 2;
+				else i++;
+			}
+
+			switch (zClassify (text, lineStart, lineEnd)) {
+			case LINE_COMMENT:
+				// (ws) ## is a comment - skip the line
+				continue;
+			case LINE_DIRECTIVE:
+				// (ws) # (word) ... is a directive
+				// Trim leading/trailing space
+				while (lineStart < lineEnd && text[lineStart] <= ' ') lineStart++;
+				while (lineEnd > lineStart && text[lineEnd - 1] <= ' ') lineEnd--;
+				break;
+			default:
+				// (ws) # (ws) - a literal # and all others
+				// just get copied
+				break;
+			}
+			out.append (text, lineStart, lineEnd - lineStart).append (eol);
+		}
+
+		zzWrite (dest, charset.encode (CharBuffer.wrap (out)), src);
+	}
+
+	private void zzTimedTransform (String src, String dest, TaskTimings timings)
+		throws BuildException
+	{
+		if (timings == null) {
+			zTransform (src, dest);
+			return;
+		}
+
+		long start = System.nanoTime ();
+		boolean ok = false;
+		try {
+			zTransform (src, dest);
+			ok = true;
+		}
+		finally {
+			timings.add (
+				src, 1, System.nanoTime () - start, 0,
+				new File (src).length (), new File (dest).length (), ok
+			);
+		}
+	}
+
+	/**
+	 * Classify a template line with a single scan
+	 * @param text the line characters
+	 * @param start the start of the line
+	 * @param end the end of the line (exclusive)
+	 * @return one of the LINE_xxx values
+	 */
+	protected static int zClassify (char[] text, int start, int end) {
+		int i = start;
+		while (i < end && zzIsSpace (text[i])) i++;
+		if (i + 1 >= end || text[i] != '#') return LINE_TEXT;
+
+		char c = text[i + 1];
+		if (c == '#') return LINE_COMMENT;
+		if (zzIsSpace (c)) return LINE_LITERAL;
+		if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+			(c >= '0' && c <= '9') || c == '_')
+			return LINE_DIRECTIVE;
+		return LINE_TEXT;
+	}
+
+	// The regular expression \s characters
+	private static boolean zzIsSpace (char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	// Transform the files on a fork-join pool, the results are
+	// checked and recorded in file order
+	private void zzTransformAll (
+		List<String[]> pending, UpToDateManifest manifest, final TaskTimings timings
+	) throws BuildException
+	{
+		ForkJoinPool pool = new ForkJoinPool (Math.min (_threads, pending.size ()));
+		try {
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>> ();
+			for (final String[] srcDest : pending) {
+				tasks.add (new Callable<Void> () {
+					@Override
+					public Void call () {
+						zzTimedTransform (srcDest[0], srcDest[1], timings);
+						return null;
+					}
+				});
+			}
+
+			List<Future<Void>> results = pool.invokeAll (tasks);
+			for (int i = 0; i < results.size (); i++) {
+				try {
+					results.get (i).get ();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread ().interrupt ();
+					throw new BuildException ("Interrupted waiting for template transformation", e);
+				}
+				catch (ExecutionException e) {
+					if (e.getCause () instanceof BuildException)
+						throw (BuildException) e.getCause ();
+					throw new BuildException ("Template transformation error", e.getCause ());
+				}
+				if (manifest != null)
+					manifest.record (pending.get (i)[0], SIGNATURE);
+			}
+		}
+		finally {
+			pool.shutdownNow ();
+		}
+	}
+
+	// Read a whole file with one channel read loop
+	private static ByteBuffer zzRead (String src) throws BuildException {
+		FileInputStream in = null;
 		try {
-			srcFile = new BufferedReader (new FileReader (src));
+			in = new FileInputStream (src);
+			FileChannel ch = in.getChannel ();
+			long size = ch.size ();
+			if (size > Integer.MAX_VALUE)
+				throw new BuildException ("File '" + src + "' is too large");
+
+			ByteBuffer buf = ByteBuffer.allocate ((int) size);
+			while (buf.hasRemaining ()) {
+				if (ch.read (buf) < 0) break;
+			}
+			buf.flip ();
+			return buf;
 		}
 		catch (FileNotFoundException e) {
 			throw new BuildException (
 				"Error reading file '" + src + "'", e
 			);
 		}
+		catch (IOException e) {
+			throw new BuildException (
+				"I/O error src=" + src, e
+			);
+		}
+		finally {
+			try { if (in != null) in.close (); } catch (Exception e1) {};
+		}
+	}
 
-		// Output file
-		BufferedWriter destFile = null;
+	private static void zzWrite (String dest, ByteBuffer buf, String src) throws BuildException {
+		FileOutputStream out = null;
 		try {
-			destFile = new BufferedWriter (new FileWriter (dest));
+			out = new FileOutputStream (dest);
 		}
 		catch (IOException e) {
 			throw new BuildException (
@@ -157,38 +417,10 @@ public class VTDirectiveTrim extends MatchingTask {
 			);
 		}
 
-		// Process the file
 		try {
-			while (true) {
-				String line = srcFile.readLine ();
-				if (line == null) break;
-
-				// (ws) ## is a comment - skip the line
-				Matcher m = DOUBLE_HASH.matcher (line);
-				if (m.lookingAt ()) continue;
-
-				// (ws) # (ws) - a literal #
-				m = HASH_SPACE.matcher (line);
-				if (m.lookingAt ()) {
-					// Copy as is
-					destFile.write (line);
-					destFile.newLine ();
-					continue;
-				}
-
-				// (ws) # (word) ... is a directive
-				m = HASH_WORD.matcher (line);
-				if (m.lookingAt ()) {
-					// Trim leading/trailing space
-					destFile.write (line.trim ());
-					destFile.newLine ();
-					continue;
-				}
-
-				// All others just get copied
-				destFile.write (line);
-				destFile.newLine ();
-			}
+			FileChannel ch = out.getChannel ();
+			while (buf.hasRemaining ())
+				ch.write (buf);
 		}
 		catch (IOException e) {
 			throw new BuildException (
@@ -197,8 +429,7 @@ public class VTDirectiveTrim extends MatchingTask {
 			);
 		}
 		finally {
-			try { srcFile.close (); } catch (Exception e1) {};
-			try { destFile.close (); } catch (Exception e2) {};
+			try { out.close (); } catch (Exception e2) {};
 		}
 	}
 
@@ -19,6 +19,7 @@ public class GroovyClassLoader
 {
 	private boolean							_verbose;
 	private File							_classDir;
+	private MultiSrcClassLoader				_parentLoader;
 	private groovy.lang.GroovyClassLoader	_gcl;
 
 	/**
@@ -77,11 +78,11 @@ public class GroovyClassLoader
 		CompilerConfiguration cCfg = new CompilerConfiguration ();
 		cCfg.setTargetDirectory (_classDir);
 
-		ClassLoader parent = new MultiSrcClassLoader (
+		_parentLoader = new MultiSrcClassLoader (
 			_verbose, this.getClass().getClassLoader ()
 		);
 
-		_gcl = new groovy.lang.GroovyClassLoader (parent, cCfg);
+		_gcl = new groovy.lang.GroovyClassLoader (_parentLoader, cCfg);
 	}
 
 	/**
@@ -101,6 +102,16 @@ public class GroovyClassLoader
 	 */
 	public File getClassDir () { return _classDir; }
 
+	/**
+	 * Forget the class and resource names the parent class loader could
+	 * not find (see MultiSrcClassLoader.clearMisses). Call it when classes
+	 * have been added to the application&apos;s class path, e.g. compiled
+	 * classes that sources loaded later refer to.
+	 */
+	public void clearClassMisses () {
+		_parentLoader.clearMisses ();
+	}
+
 	/**
 	 * Load the groovy class defined in the specified path. The
 	 * return value on success is the class object.
@@ -3,26 +3,32 @@
  */
 package com.duboulder.resource;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.concurrent.*;
 
 /**
  * An abstract implementation of EntityLoader that uses a ResourceLoader
  * and provides for fixed path prefixes and suffixes. If both the entity
  * loader and resource loader transform paths, the effective path is:<br/>
  * &nbsp;&nbsp;&nbsp;  the resource loader transformation which is
- * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp; applied to the entity loader transformation of the path
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp; applied to the entity loader transformation of the path<br/>
+ * <br/>
+ * Bulk loads load the entities one at a time.
  */
-public abstract class AbstractEntityLoader<T> implements EntityLoader<T> {
+public abstract class AbstractEntityLoader<T> implements BulkEntityLoader<T> {
 	private String			_name;
 	private String			_prefix;
 	private String			_suffix;
 	private ResourceLoader	_resourceLoader;
+	private PathResolver	_paths;
 
 	protected AbstractEntityLoader (String name) {
 		zzSetName (name);
 		_prefix = "";
 		_suffix = "";
 		_resourceLoader = null;
+		_paths = new PathResolver (_prefix, _suffix);
 	}
 
 	protected AbstractEntityLoader (String name, ResourceLoader resourceLoader) {
@@ -30,6 +36,7 @@ public abstract class AbstractEntityLoader<T> implements EntityLoader<T> {
 		zzSetRL (resourceLoader);
 		_prefix = "";
 		_suffix = "";
+		_paths = new PathResolver (_prefix, _suffix);
 	}
 	
 	protected AbstractEntityLoader (String name, ResourceLoader resourceLoader, String prefix, String suffix) {
@@ -37,6 +44,7 @@ public abstract class AbstractEntityLoader<T> implements EntityLoader<T> {
 		zzSetRL (resourceLoader);
 		_prefix = (prefix == null ? "" : prefix);
 		_suffix = (suffix == null ? "" : suffix);
+		_paths = new PathResolver (_prefix, _suffix);
 	}
 
 	@Override
@@ -55,6 +63,20 @@ public abstract class AbstractEntityLoader<T> implements EntityLoader<T> {
 		return _resourceLoader.getLastModified (resourcePath);
 	}
 
+	@Override
+	public BulkLoadResult<T> loadEntities (Collection<String> paths) {
+		return BulkLoads.Sequential (this, paths);
+	}
+
+	@Override
+	public CompletableFuture<BulkLoadResult<T>> loadEntitiesAsync (
+		Collection<String> paths, Executor executor
+	) {
+		return BulkLoads.SequentialAsync (
+			this, paths, (executor == null ? BulkLoads.DefaultExecutor () : executor)
+		);
+	}
+
 	/**
 	 * The resource loader the entity loader uses to get the resource content
 	 * @return the resource loader (may be null)
@@ -65,7 +87,8 @@ public abstract class AbstractEntityLoader<T> implements EntityLoader<T> {
 
 	/**
 	 * Helper function for checking a path and adding the prefix/suffix
-	 * if present (does not include resource loader path transformations)
+	 * if present (does not include resource loader path transformations).
+	 * Repeated calls for a path answer the same String (see PathResolver).
 	 * @param path the entity path (not null, not empty)
 	 * @return the effective path with prefixes/suffixes applied
 	 * @throws NullPointerException if the path is null
@@ -77,25 +100,7 @@ public abstract class AbstractEntityLoader<T> implements EntityLoader<T> {
 		if (path.isEmpty ())
 			throw new IllegalArgumentException ("path is empty");
 
-		if (_prefix.isEmpty () && _suffix.isEmpty ())
-			return path;
-
-		StringBuilder sb = new StringBuilder ();
-		sb.append (_prefix);
-
-		// Prevent adding a double slash (//) at the boundary
-		// between the prefix and the path
-		if (!path.isEmpty ()) {
-			if (path.charAt (0) == '/' && _prefix.endsWith ("/"))
-				sb.append (path.subSequence (1, path.length ()));
-			else
-				sb.append (path);
-		}
-
-		if (!_suffix.isEmpty () && !path.endsWith (_suffix))
-			sb.append (_suffix);
-
-		return sb.toString ();
+		return _paths.resolve (path);
 	}
 
 	protected String zErrMsg (String entityIdent, String streamIdent, String message, Throwable t) {
@@ -0,0 +1,112 @@
+package com.duboulder.resource;
+
+import java.io.*;
+import javax.xml.stream.*;
+
+/**
+ * An abstract entity loader that builds its entities from a StAX stream
+ * instead of a DOM tree, for entities that only need part of a document.
+ * loadEntity opens the resource, checks the root element against the
+ * rootElementTag and calls zBuildEntity with the reader on the root
+ * element. The stream readers come from a per-thread XMLInputFactory
+ * that does not resolve external entities.
+ * @param <T> the type for the entities the loader returns.
+ */
+public abstract class AbstractStAXEntityLoader<T> extends AbstractXMLEntityLoader<T> {
+	private static final ThreadLocal<XMLInputFactory> _inputFactory =
+		new ThreadLocal<XMLInputFactory> () {
+			@Override
+			protected XMLInputFactory initialValue () {
+				XMLInputFactory factory = XMLInputFactory.newInstance ();
+				factory.setProperty (XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+				factory.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+				return factory;
+			}
+		};
+
+	protected AbstractStAXEntityLoader (
+		String name, ResourceLoader resourceLoader, String rootElementTag
+	) {
+		super (name, resourceLoader, rootElementTag);
+	}
+	protected AbstractStAXEntityLoader (
+		String name, ResourceLoader resourceLoader, String rootElementTag, String prefix, String suffix
+	) {
+		super (name, resourceLoader, rootElementTag, prefix, suffix);
+	}
+
+	@Override
+	public T loadEntity (String path)
+		throws IOException, ResourceNotFoundException
+	{
+		if (path == null)
+			throw new NullPointerException ("path is null");
+		if (path.isEmpty ())
+			throw new IllegalArgumentException ("path is empty");
+		return zParseStream (path);
+	}
+
+	/**
+	 * Load the resource for the path and build the entity from a StAX
+	 * stream of its contents. The root element is checked against
+	 * getRootElementTag, then zBuildEntity is called with the reader on
+	 * the root element&apos;s START_ELEMENT event.
+	 * @param resourcePath the resource path w/o prefix/suffix (not null, not empty)
+	 * @return the entity built by zBuildEntity
+	 * @throws IOException on a load or parse error, or a wrong root element
+	 * @throws ResourceNotFoundException if the resource does not exist
+	 */
+	protected T zParseStream (String resourcePath)
+		throws IOException, ResourceNotFoundException
+	{
+		// See zGetDom for why both paths are needed
+		String streamIdent = getEffectivePath (resourcePath);
+		InputStream is = getResourceLoader ().getInputStream (zEffPath (resourcePath));
+		if (is == null)
+			throw new ResourceNotFoundException (
+				zErrMsg (streamIdent, "resource not found", null)
+			);
+
+		String rootElementTag = getRootElementTag ();
+		XMLStreamReader reader = null;
+		try {
+			reader = _inputFactory.get ().createXMLStreamReader (streamIdent, is);
+			while (reader.hasNext () && reader.next () != XMLStreamConstants.START_ELEMENT)
+				;
+			if (!reader.isStartElement ())
+				throw new IOException (zErrMsg (streamIdent, "no root element", null));
+
+			String tag = reader.getLocalName ();
+			String prefix = reader.getPrefix ();
+			if (!rootElementTag.equals (tag) &&
+				!(prefix != null && !prefix.isEmpty () && rootElementTag.equals (prefix + ":" + tag)))
+			{
+				throw new IOException (zErrMsg (
+					streamIdent,
+					"root element is <" + tag + ">, expected <" + rootElementTag + ">",
+					null
+				));
+			}
+
+			return zBuildEntity (streamIdent, reader);
+		}
+		catch (XMLStreamException e) {
+			throw new IOException (zErrMsg (streamIdent, null, e), e);
+		}
+		finally {
+			try { if (reader != null) reader.close (); } catch (Exception e) {};
+			try { is.close (); } catch (Exception e) {};
+		}
+	}
+
+	/**
+	 * Build the entity from a StAX stream (see zParseStream)
+	 * @param streamIdent the stream identifier for error messages
+	 * @param reader the reader, on the root element&apos;s START_ELEMENT event
+	 * @return the entity (not null)
+	 * @throws XMLStreamException on a parse error
+	 * @throws IOException if the content is not valid for the entity
+	 */
+	protected abstract T zBuildEntity (String streamIdent, XMLStreamReader reader)
+		throws XMLStreamException, IOException;
+}
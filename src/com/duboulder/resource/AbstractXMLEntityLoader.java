@@ -10,7 +10,8 @@ import com.duboulder.xml.*;
 /**
  * An abstract entity loader that loads XML files using a DOM tree. The
  * rootElementTag specifies the required element for the XML document&apos;s
- * root element.
+ * root element. See AbstractStAXEntityLoader for building entities
+ * from a StAX stream instead.
  * @param <T> the type for the entities the loader returns.
  */
 public abstract class AbstractXMLEntityLoader<T> extends AbstractEntityLoader<T> {
@@ -0,0 +1,18 @@
+package com.duboulder.resource;
+
+import java.util.concurrent.*;
+
+/**
+ * Non-blocking companion to EntityLoader (see AsyncLoaders for using
+ * any entity loader, e.g. a TemplateLoader or GroovyInstanceLoader).
+ * @param <T> the entity type
+ */
+public interface AsyncEntityLoader<T> {
+	/**
+	 * Load the entity for a path without blocking the caller
+	 * @param path the entity path (not null, not empty)
+	 * @return the future entity, completed exceptionally with the
+	 * 		loader&apos;s exception (e.g. ResourceNotFoundException)
+	 */
+	CompletableFuture<T> loadEntityAsync (String path);
+}
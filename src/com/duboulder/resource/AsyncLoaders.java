@@ -0,0 +1,121 @@
+package com.duboulder.resource;
+
+import java.io.*;
+import java.util.Date;
+import java.util.concurrent.*;
+
+/**
+ * Non-blocking access to the blocking entity and resource loaders. The
+ * loads run on an executor: the one given, or BulkLoads.DefaultExecutor
+ * (virtual threads where the JDK has them). An executor from
+ * Executors.newVirtualThreadPerTaskExecutor can also be passed
+ * explicitly.
+ */
+public class AsyncLoaders {
+	private AsyncLoaders () {}
+
+	// Runs an entity load on an executor
+	private static class ZEntityAdapter<T> implements AsyncEntityLoader<T> {
+		private final EntityLoader<T>	_loader;
+		private final Executor			_executor;
+
+		ZEntityAdapter (EntityLoader<T> loader, Executor executor) {
+			_loader = loader;
+			_executor = executor;
+		}
+
+		@Override
+		public CompletableFuture<T> loadEntityAsync (final String path) {
+			return zzSupply (new Callable<T> () {
+				@Override
+				public T call () throws Exception {
+					return _loader.loadEntity (path);
+				}
+			}, _executor);
+		}
+	}
+
+	/**
+	 * Answer an async view of an entity loader. Loaders that implement
+	 * AsyncEntityLoader (e.g. EntityCachingLoader, which shares one
+	 * future between concurrent misses) are answered as they are when
+	 * no executor is given.
+	 * @param loader the entity loader (not null)
+	 * @param executor the executor for the loads (null for the default)
+	 * @return the async loader
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> AsyncEntityLoader<T> ForEntityLoader (EntityLoader<T> loader, Executor executor) {
+		if (loader == null)
+			throw new NullPointerException ("loader is null");
+		if (executor == null && loader instanceof AsyncEntityLoader)
+			return (AsyncEntityLoader<T>) loader;
+		return new ZEntityAdapter<T> (
+			loader, (executor == null ? BulkLoads.DefaultExecutor () : executor)
+		);
+	}
+
+	/**
+	 * Open a resource without blocking the caller
+	 * @param loader the resource loader (not null)
+	 * @param resourcePath the resource path (not null, not empty)
+	 * @param executor the executor (null for the default)
+	 * @return the future stream, the caller must close it
+	 */
+	public static CompletableFuture<InputStream> GetInputStream (
+		final ResourceLoader loader, final String resourcePath, Executor executor
+	) {
+		if (loader == null)
+			throw new NullPointerException ("loader is null");
+		return zzSupply (new Callable<InputStream> () {
+			@Override
+			public InputStream call () throws Exception {
+				return loader.getInputStream (resourcePath);
+			}
+		}, (executor == null ? BulkLoads.DefaultExecutor () : executor));
+	}
+
+	/**
+	 * Get a resource&apos;s last modified time without blocking the caller
+	 * @param loader the resource loader (not null)
+	 * @param resourcePath the resource path (not null, not empty)
+	 * @param executor the executor (null for the default)
+	 * @return the future time (the future&apos;s value is null if not known)
+	 */
+	public static CompletableFuture<Date> GetLastModified (
+		final ResourceLoader loader, final String resourcePath, Executor executor
+	) {
+		if (loader == null)
+			throw new NullPointerException ("loader is null");
+		return zzSupply (new Callable<Date> () {
+			@Override
+			public Date call () {
+				return loader.getLastModified (resourcePath);
+			}
+		}, (executor == null ? BulkLoads.DefaultExecutor () : executor));
+	}
+
+	// Like CompletableFuture.supplyAsync, but the future completes
+	// with the callable's checked exception (not wrapped)
+	private static <T> CompletableFuture<T> zzSupply (final Callable<T> task, Executor executor) {
+		final CompletableFuture<T> f = new CompletableFuture<T> ();
+		try {
+			executor.execute (new Runnable () {
+				@Override
+				public void run () {
+					try {
+						f.complete (task.call ());
+					}
+					catch (Throwable t) {
+						f.completeExceptionally (t);
+					}
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			// e.g. RejectedExecutionException
+			f.completeExceptionally (e);
+		}
+		return f;
+	}
+}
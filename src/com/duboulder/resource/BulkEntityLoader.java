@@ -0,0 +1,31 @@
+package com.duboulder.resource;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Optional capability for entity loaders that can load several entities
+ * in one call (see BulkLoads for loading with any entity loader). A path
+ * that fails is reported in the result and does not fail the others.
+ * @param <T> the entity type
+ */
+public interface BulkEntityLoader<T> extends EntityLoader<T> {
+	/**
+	 * Load the entities for the paths
+	 * @param paths the entity paths (not null, duplicates are loaded once)
+	 * @return the loaded entities and the per-path errors
+	 */
+	BulkLoadResult<T> loadEntities (Collection<String> paths);
+
+	/**
+	 * Load the entities for the paths without blocking the caller
+	 * @param paths the entity paths (not null, duplicates are loaded once)
+	 * @param executor the executor the loads run on (null for the
+	 * 		loader&apos;s default)
+	 * @return the future result, it is not completed exceptionally
+	 * 		for per-path errors
+	 */
+	CompletableFuture<BulkLoadResult<T>> loadEntitiesAsync (
+		Collection<String> paths, Executor executor
+	);
+}
@@ -0,0 +1,76 @@
+package com.duboulder.resource;
+
+import java.util.*;
+
+/**
+ * The result of loading several entities: the loaded entities and the
+ * errors for the paths that could not be loaded. One path failing does
+ * not fail the others. Paths are kept in request order.
+ * @param <T> the entity type
+ */
+public class BulkLoadResult<T> {
+	private final Map<String,T>			_entities;
+	private final Map<String,Exception>	_errors;
+
+	public BulkLoadResult () {
+		_entities	= new LinkedHashMap<String,T> ();
+		_errors		= new LinkedHashMap<String,Exception> ();
+	}
+
+	/**
+	 * Record a loaded entity
+	 * @param path the entity path
+	 * @param entity the entity
+	 */
+	public synchronized void putEntity (String path, T entity) {
+		_errors.remove (path);
+		_entities.put (path, entity);
+	}
+
+	/**
+	 * Record a load error
+	 * @param path the entity path
+	 * @param error the error (e.g. ResourceNotFoundException, IOException, or
+	 * 		an ExecutionException wrapping an Error)
+	 */
+	public synchronized void putError (String path, Exception error) {
+		_entities.remove (path);
+		_errors.put (path, error);
+	}
+
+	/**
+	 * The loaded entities by path
+	 * @return the entities (never null)
+	 */
+	public synchronized Map<String,T> getEntities () {
+		return Collections.unmodifiableMap (new LinkedHashMap<String,T> (_entities));
+	}
+
+	/**
+	 * The errors by path
+	 * @return the errors (never null, empty when all of the paths loaded)
+	 */
+	public synchronized Map<String,Exception> getErrors () {
+		return Collections.unmodifiableMap (new LinkedHashMap<String,Exception> (_errors));
+	}
+
+	/**
+	 * Answer the entity for a path
+	 * @param path the entity path
+	 * @return the entity or null if it was not loaded
+	 */
+	public synchronized T get (String path) { return _entities.get (path); }
+
+	/**
+	 * Answer the error for a path
+	 * @param path the entity path
+	 * @return the error or null if there was none
+	 */
+	public synchronized Exception getError (String path) { return _errors.get (path); }
+
+	/**
+	 * Whether all of the paths were loaded
+	 * @return true if there are no errors
+	 */
+	public synchronized boolean isComplete () { return _errors.isEmpty (); }
+}
@@ -0,0 +1,109 @@
+package com.duboulder.resource;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Bulk loading helpers for entity loaders.
+ */
+public class BulkLoads {
+	private static ExecutorService	_defaultExecutor;	// guarded by BulkLoads.class
+
+	private BulkLoads () {}
+
+	/**
+	 * The executor used for loads when none is given. On JDKs with
+	 * virtual threads it starts a virtual thread per load, otherwise it
+	 * is a cached pool of daemon threads. Loads block on I/O, so they are
+	 * not run on the common fork/join pool, which has one thread per
+	 * processor.
+	 * @return the shared default executor
+	 */
+	public static synchronized ExecutorService DefaultExecutor () {
+		if (_defaultExecutor != null)
+			return _defaultExecutor;
+
+		try {
+			// Executors.newVirtualThreadPerTaskExecutor (JDK 21+)
+			Method m = Executors.class.getMethod ("newVirtualThreadPerTaskExecutor");
+			_defaultExecutor = (ExecutorService) m.invoke (null);
+		}
+		catch (Exception e) {
+			_defaultExecutor = Executors.newCachedThreadPool (new ThreadFactory () {
+				private int		_count;
+
+				@Override
+				public synchronized Thread newThread (Runnable r) {
+					Thread t = new Thread (r, "entity-load-" + (++_count));
+					t.setDaemon (true);
+					return t;
+				}
+			});
+		}
+		return _defaultExecutor;
+	}
+
+	/**
+	 * Load the entities with a loader, using its bulk load when it
+	 * implements BulkEntityLoader
+	 * @param loader the entity loader (not null)
+	 * @param paths the entity paths (not null)
+	 * @return the loaded entities and the per-path errors
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> BulkLoadResult<T> LoadAll (EntityLoader<T> loader, Collection<String> paths) {
+		if (loader instanceof BulkEntityLoader)
+			return ((BulkEntityLoader<T>) loader).loadEntities (paths);
+		return Sequential (loader, paths);
+	}
+
+	/**
+	 * Load the entities one at a time
+	 * @param loader the entity loader (not null)
+	 * @param paths the entity paths (not null, duplicates are loaded once)
+	 * @return the loaded entities and the per-path errors
+	 */
+	public static <T> BulkLoadResult<T> Sequential (EntityLoader<T> loader, Collection<String> paths) {
+		if (loader == null)
+			throw new NullPointerException ("loader is null");
+		if (paths == null)
+			throw new NullPointerException ("paths is null");
+
+		BulkLoadResult<T> result = new BulkLoadResult<T> ();
+		for (String path : new LinkedHashSet<String> (paths)) {
+			try {
+				result.putEntity (path, loader.loadEntity (path));
+			}
+			catch (Exception e) {
+				result.putError (path, e);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Load the entities one at a time on an executor
+	 * @param loader the entity loader (not null)
+	 * @param paths the entity paths (not null, duplicates are loaded once)
+	 * @param executor the executor (not null)
+	 * @return the future result
+	 */
+	public static <T> CompletableFuture<BulkLoadResult<T>> SequentialAsync (
+		final EntityLoader<T> loader, Collection<String> paths, Executor executor
+	) {
+		if (paths == null)
+			throw new NullPointerException ("paths is null");
+		if (executor == null)
+			throw new NullPointerException ("executor is null");
+
+		final List<String> pathList = new ArrayList<String> (paths);
+		return CompletableFuture.supplyAsync (new Supplier<BulkLoadResult<T>> () {
+			@Override
+			public BulkLoadResult<T> get () {
+				return Sequential (loader, pathList);
+			}
+		}, executor);
+	}
+}
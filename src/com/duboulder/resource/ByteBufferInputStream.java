@@ -0,0 +1,67 @@
+package com.duboulder.resource;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream reading the remaining bytes of a ByteBuffer without
+ * copying them first. The stream reads its own duplicate of the buffer,
+ * so the buffer&apos;s position and limit are not changed.
+ */
+public class ByteBufferInputStream extends InputStream {
+	private ByteBuffer			_buf;
+	private int					_mark;
+
+	/**
+	 * Read the bytes between the buffer&apos;s position and limit
+	 * @param buf the buffer (not null)
+	 */
+	public ByteBufferInputStream (ByteBuffer buf) {
+		if (buf == null)
+			throw new NullPointerException ("buffer is null");
+		_buf = buf.duplicate ();
+		_mark = _buf.position ();
+	}
+
+	@Override
+	public int read () {
+		return (_buf.hasRemaining () ? _buf.get () & 0xff : -1);
+	}
+
+	@Override
+	public int read (byte[] b, int off, int len) {
+		if (len == 0) return 0;
+		if (!_buf.hasRemaining ()) return -1;
+		int n = Math.min (len, _buf.remaining ());
+		_buf.get (b, off, n);
+		return n;
+	}
+
+	@Override
+	public long skip (long n) {
+		if (n <= 0) return 0;
+		int count = (int) Math.min (n, _buf.remaining ());
+		_buf.position (_buf.position () + count);
+		return count;
+	}
+
+	@Override
+	public int available () {
+		return _buf.remaining ();
+	}
+
+	@Override
+	public boolean markSupported () {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark (int readLimit) {
+		_mark = _buf.position ();
+	}
+
+	@Override
+	public synchronized void reset () {
+		_buf.position (_mark);
+	}
+}
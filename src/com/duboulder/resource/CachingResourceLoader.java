@@ -0,0 +1,278 @@
+package com.duboulder.resource;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A resource loader that keeps the content of the resources read through
+ * another loader in memory. Cached resources are answered as
+ * ByteArrayInputStreams over the cached bytes. The total size of the
+ * cached content is limited, the least recently used resources are
+ * dropped to stay under the limit, and resources larger than the entry
+ * size limit are not cached.<br/>
+ * <br/>
+ * A cached resource is checked with the wrapped loader&apos;s
+ * getLastModified, at most once per revalidation interval, and is read
+ * again when its time changed. Resources whose time is not known (null)
+ * stay cached until they are dropped or invalidated.<br/>
+ * <br/>
+ * The loader is thread-safe if the wrapped loader is.
+ */
+public class CachingResourceLoader implements ResourceLoader, ResourceLister {
+	private static class ZEntry {
+		final byte[]	content;
+		final Date		lastModified;	// null if not known
+		volatile long	checkTime;
+
+		ZEntry (byte[] content, Date lastModified, long checkTime) {
+			this.content		= content;
+			this.lastModified	= lastModified;
+			this.checkTime		= checkTime;
+		}
+	}
+
+	private static final int		MAX_ENTRY_BYTES = Integer.MAX_VALUE - 8;	// largest byte array
+
+	private String					_name;
+	private ResourceLoader			_loader;
+	private long					_maxBytes;
+	private int						_maxEntryBytes;
+	private long					_revalidateInterval; // in milliseconds
+	private LinkedHashMap<String,ZEntry> _entries;	// access order, guarded by itself
+	private long					_bytes;			// guarded by _entries
+	private long					_hits;
+	private long					_misses;
+
+	/**
+	 * Cache the resources of a loader
+	 * @param loader the loader to read resources with (not null)
+	 * @param maxBytes the limit on the total cached bytes (&gt; 0)
+	 */
+	public CachingResourceLoader (ResourceLoader loader, long maxBytes) {
+		this (null, loader, maxBytes);
+	}
+
+	/**
+	 * Cache the resources of a loader
+	 * @param name the loader name (may be null, default is the class name)
+	 * @param loader the loader to read resources with (not null)
+	 * @param maxBytes the limit on the total cached bytes (&gt; 0)
+	 */
+	public CachingResourceLoader (String name, ResourceLoader loader, long maxBytes) {
+		if (loader == null)
+			throw new NullPointerException ("loader is null");
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException ("max bytes must be > 0");
+
+		_name				= (name == null ? this.getClass ().getName () : name);
+		_loader				= loader;
+		_maxBytes			= maxBytes;
+		_maxEntryBytes		= (int) Math.min (maxBytes / 4, MAX_ENTRY_BYTES);
+		_revalidateInterval	= 0;
+		_entries			= new LinkedHashMap<String,ZEntry> (64, 0.75f, true);
+		_bytes				= 0;
+	}
+
+	/**
+	 * The loader the resources are read with
+	 * @return the wrapped loader
+	 */
+	public ResourceLoader getLoader () { return _loader; }
+
+	/**
+	 * The limit on the total size of the cached content
+	 * @return the limit in bytes
+	 */
+	public long getMaxBytes () { return _maxBytes; }
+
+	/**
+	 * The size of the largest resource that is cached, defaults to a
+	 * quarter of the total limit. Larger settings are reduced to the
+	 * largest byte array size (Integer.MAX_VALUE - 8).
+	 * @return the limit in bytes
+	 */
+	public int getMaxEntryBytes () { return _maxEntryBytes; }
+	public void setMaxEntryBytes (int maxEntryBytes) {
+		if (maxEntryBytes < 0)
+			throw new IllegalArgumentException ("max entry bytes is < 0");
+		_maxEntryBytes = Math.min (maxEntryBytes, MAX_ENTRY_BYTES);
+	}
+
+	/**
+	 * The minimum time between last modified checks of a cached resource.
+	 * 0 checks on every access.
+	 * @return the interval in milliseconds
+	 */
+	public long getRevalidateInterval () { return _revalidateInterval; }
+	public void setRevalidateInterval (long interval) { _revalidateInterval = interval; }
+
+	/**
+	 * The total size of the cached content
+	 * @return the size in bytes
+	 */
+	public long getCachedBytes () {
+		synchronized (_entries) {
+			return _bytes;
+		}
+	}
+
+	/**
+	 * The number of reads answered from the cache
+	 * @return the hit count
+	 */
+	public long getHits () {
+		synchronized (_entries) {
+			return _hits;
+		}
+	}
+
+	/**
+	 * The number of reads done with the wrapped loader
+	 * @return the miss count
+	 */
+	public long getMisses () {
+		synchronized (_entries) {
+			return _misses;
+		}
+	}
+
+	/**
+	 * Drop a cached resource
+	 * @param resourcePath the resource path (not null)
+	 */
+	public void invalidate (String resourcePath) {
+		if (resourcePath == null)
+			throw new NullPointerException ("resource path is null");
+		synchronized (_entries) {
+			ZEntry entry = _entries.remove (resourcePath);
+			if (entry != null) _bytes -= entry.content.length;
+		}
+	}
+
+	/**
+	 * Drop all of the cached resources
+	 */
+	public void clear () {
+		synchronized (_entries) {
+			_entries.clear ();
+			_bytes = 0;
+		}
+	}
+
+	@Override
+	public String getName () {
+		return _name;
+	}
+
+	@Override
+	public String getEffectivePath (String resourcePath) {
+		return _loader.getEffectivePath (resourcePath);
+	}
+
+	@Override
+	public Date getLastModified (String resourcePath) {
+		return _loader.getLastModified (resourcePath);
+	}
+
+	@Override
+	public InputStream getInputStream (String resourcePath)
+		throws IOException, ResourceNotFoundException
+	{
+		if (resourcePath == null)
+			throw new NullPointerException ("resource path is null");
+
+		ZEntry entry;
+		synchronized (_entries) {
+			entry = _entries.get (resourcePath);
+		}
+		if (entry != null && zzIsCurrent (resourcePath, entry)) {
+			synchronized (_entries) {
+				_hits++;
+			}
+			return new ByteArrayInputStream (entry.content);
+		}
+
+		// Read the time first, a change during the read is seen by the
+		// next check
+		Date lastModified = _loader.getLastModified (resourcePath);
+		InputStream is = _loader.getInputStream (resourcePath);
+		int limit = _maxEntryBytes;
+		byte[] content = null;
+		try {
+			content = zzRead (is, limit + 1);
+		}
+		finally {
+			// An oversized resource's stream is answered below
+			if (content == null || content.length <= limit) {
+				try { is.close (); } catch (Exception e) {};
+			}
+		}
+		synchronized (_entries) {
+			_misses++;
+		}
+		if (content.length > limit) {
+			// Too large to cache, answer the bytes read followed by the
+			// rest of the stream
+			invalidate (resourcePath);
+			return new SequenceInputStream (new ByteArrayInputStream (content), is);
+		}
+
+		zzPut (resourcePath, new ZEntry (content, lastModified, System.currentTimeMillis ()));
+		return new ByteArrayInputStream (content);
+	}
+
+	@Override
+	public List<String> listResources (String dirPath, String suffix)
+		throws IOException
+	{
+		if (!(_loader instanceof ResourceLister))
+			throw new IOException (
+				"Loader '" + _loader.getName () + "' can't list resources"
+			);
+		return ((ResourceLister) _loader).listResources (dirPath, suffix);
+	}
+
+	// Answer whether a cached resource is still current
+	private boolean zzIsCurrent (String resourcePath, ZEntry entry) {
+		if (entry.lastModified == null) return true;
+
+		long now = System.currentTimeMillis ();
+		if (now - entry.checkTime < _revalidateInterval) return true;
+
+		Date lastModified = _loader.getLastModified (resourcePath);
+		if (lastModified == null || lastModified.getTime () != entry.lastModified.getTime ())
+			return false;
+		entry.checkTime = now;
+		return true;
+	}
+
+	private void zzPut (String resourcePath, ZEntry entry) {
+		synchronized (_entries) {
+			ZEntry prev = _entries.put (resourcePath, entry);
+			if (prev != null) _bytes -= prev.content.length;
+			_bytes += entry.content.length;
+
+			// Drop the least recently used resources
+			Iterator<ZEntry> it = _entries.values ().iterator ();
+			while (_bytes > _maxBytes && it.hasNext ()) {
+				ZEntry e = it.next ();
+				it.remove ();
+				_bytes -= e.content.length;
+			}
+		}
+	}
+
+	// Answer up to max bytes of the stream, fewer at the end of the stream
+	private static byte[] zzRead (InputStream is, int max) throws IOException {
+		byte[] buf = new byte[Math.min (8192, max)];
+		int n = 0;
+		while (n < max) {
+			if (n == buf.length)
+				buf = Arrays.copyOf (buf, (int) Math.min ((long) n * 2, (long) max));
+			int count = is.read (buf, n, buf.length - n);
+			if (count < 0) break;
+			n += count;
+		}
+		return (n == buf.length ? buf : Arrays.copyOf (buf, n));
+	}
+}
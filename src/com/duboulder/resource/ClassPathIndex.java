@@ -0,0 +1,258 @@
+package com.duboulder.resource;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
+
+/**
+ * An index of the resources under a name prefix in a list of class path
+ * entries (jars and directories). The entries are scanned once, in
+ * parallel on a few threads of the index&apos;s own, and the first entry holding a name owns it, as in a class
+ * path search. Jar resources are read from a shared ZipFile for each jar.
+ * <br/>
+ * <br/>
+ * Directory resources are indexed by name only: their time is read from
+ * the file when asked for and their size and CRC are not recorded, so
+ * edits to existing files are seen. Resources added after the scan are not
+ * found until the index is rebuilt.<br/>
+ * <br/>
+ * An index can be used from several threads.
+ */
+public class ClassPathIndex {
+	/** An indexed resource */
+	public static class Entry {
+		public final String		name;
+		public final File		source;		// the jar or directory
+		public final boolean	inJar;
+		public final long		size;		// -1 if not known
+		public final long		crc;		// -1 if not known
+		public final long		time;		// -1 if not known
+
+		Entry (String name, File source, boolean inJar, long size, long crc, long time) {
+			this.name	= name;
+			this.source	= source;
+			this.inJar	= inJar;
+			this.size	= size;
+			this.crc	= crc;
+			this.time	= time;
+		}
+
+		/**
+		 * The resource&apos;s file for directory resources
+		 * @return the file or null for jar resources
+		 */
+		public File getFile () {
+			return (inJar ? null : new File (source, name));
+		}
+
+		/**
+		 * The last modified time, read from the file for directory resources
+		 * @return the time in ms or -1 if not known
+		 */
+		public long getLastModified () {
+			if (inJar) return time;
+			long t = getFile ().lastModified ();
+			return (t == 0 ? -1 : t);
+		}
+	}
+
+	private static final int			MAX_SCAN_THREADS = 4;
+
+	private final String				_prefix;
+	private final Map<String,Entry>		_entries;
+	private final ConcurrentHashMap<File,ZipFile> _zips;
+
+	private ClassPathIndex (String prefix, Map<String,Entry> entries) {
+		_prefix		= prefix;
+		_entries	= entries;
+		_zips		= new ConcurrentHashMap<File,ZipFile> ();
+	}
+
+	/**
+	 * Scan the class path entries and answer the index of the resources
+	 * whose names start with prefix
+	 * @param classPath the jars and directories in search order (not null)
+	 * @param prefix the name prefix (may be null or empty, a leading / is ignored)
+	 * @return the index
+	 * @throws IOException if a jar can&apos;t be read
+	 */
+	public static ClassPathIndex Scan (List<File> classPath, String prefix)
+		throws IOException
+	{
+		if (classPath == null)
+			throw new NullPointerException ("class path is null");
+		if (prefix == null) prefix = "";
+		while (prefix.startsWith ("/"))
+			prefix = prefix.substring (1);
+
+		final String namePrefix = prefix;
+		List<Callable<List<Entry>>> scans = new ArrayList<Callable<List<Entry>>> ();
+		for (final File source : classPath) {
+			scans.add (new Callable<List<Entry>> () {
+				@Override
+				public List<Entry> call () throws IOException {
+					List<Entry> found = new ArrayList<Entry> ();
+					if (source.isDirectory ())
+						zzScanDir (source, source, "", namePrefix, found);
+					else if (source.isFile ())
+						zzScanJar (source, namePrefix, found);
+					return found;
+				}
+			});
+		}
+
+		// Merge in class path order so the first entry owns a name
+		Map<String,Entry> entries = new HashMap<String,Entry> ();
+		if (scans.isEmpty ())
+			return new ClassPathIndex (namePrefix, entries);
+
+		// The scans block on file I/O, so they get their own threads
+		// instead of the common pool's
+		ExecutorService pool = Executors.newFixedThreadPool (
+			Math.min (scans.size (), MAX_SCAN_THREADS),
+			new ThreadFactory () {
+				private final AtomicInteger _count = new AtomicInteger ();
+				@Override
+				public Thread newThread (Runnable r) {
+					Thread t = new Thread (
+						r, "ClassPathIndex-" + _count.incrementAndGet ()
+					);
+					t.setDaemon (true);
+					return t;
+				}
+			}
+		);
+		try {
+			for (Future<List<Entry>> scan : pool.invokeAll (scans)) {
+				for (Entry entry : scan.get ()) {
+					if (!entries.containsKey (entry.name))
+						entries.put (entry.name, entry);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread ().interrupt ();
+			throw new InterruptedIOException ("class path scan interrupted");
+		}
+		catch (ExecutionException e) {
+			if (e.getCause () instanceof IOException)
+				throw (IOException) e.getCause ();
+			if (e.getCause () instanceof RuntimeException)
+				throw (RuntimeException) e.getCause ();
+			throw new IOException ("class path scan error", e.getCause ());
+		}
+		finally {
+			pool.shutdownNow ();
+		}
+		return new ClassPathIndex (namePrefix, entries);
+	}
+
+	/**
+	 * The name prefix of the indexed resources
+	 * @return the prefix (never null)
+	 */
+	public String getPrefix () { return _prefix; }
+
+	/**
+	 * The number of indexed resources
+	 * @return the resource count
+	 */
+	public int size () { return _entries.size (); }
+
+	/**
+	 * Answer the indexed resource for a name
+	 * @param name the resource name (no leading /)
+	 * @return the entry or null if the name is not indexed
+	 */
+	public Entry get (String name) {
+		return _entries.get (name);
+	}
+
+	/**
+	 * Open an indexed resource
+	 * @param entry the entry from this index (not null)
+	 * @return the resource&apos;s input stream
+	 * @throws IOException if the resource can&apos;t be read
+	 */
+	public InputStream open (Entry entry) throws IOException {
+		if (entry == null)
+			throw new NullPointerException ("entry is null");
+		if (!entry.inJar)
+			return new FileInputStream (entry.getFile ());
+
+		ZipFile zip = _zips.get (entry.source);
+		if (zip == null) {
+			zip = new ZipFile (entry.source);
+			ZipFile prev = _zips.putIfAbsent (entry.source, zip);
+			if (prev != null) {
+				try { zip.close (); } catch (Exception e) {};
+				zip = prev;
+			}
+		}
+		ZipEntry zipEntry = zip.getEntry (entry.name);
+		if (zipEntry == null)
+			throw new FileNotFoundException (
+				"'" + entry.name + "' is no longer in " + entry.source.getPath ()
+			);
+		return zip.getInputStream (zipEntry);
+	}
+
+	/**
+	 * Close the jars opened for reading resources. Later opens reopen them.
+	 * Streams opened from the jars fail once they are closed, so only call
+	 * this when no other thread is reading from the index. An index that is
+	 * dropped without closing it closes its jars when it is garbage
+	 * collected.
+	 */
+	public void close () {
+		for (File source : new ArrayList<File> (_zips.keySet ())) {
+			ZipFile zip = _zips.remove (source);
+			try { if (zip != null) zip.close (); } catch (Exception e) {};
+		}
+	}
+
+	private static void zzScanJar (File jar, String prefix, List<Entry> found)
+		throws IOException
+	{
+		ZipFile zip = null;
+		try {
+			zip = new ZipFile (jar);
+			Enumeration<? extends ZipEntry> zipEntries = zip.entries ();
+			while (zipEntries.hasMoreElements ()) {
+				ZipEntry ze = zipEntries.nextElement ();
+				if (ze.isDirectory () || !ze.getName ().startsWith (prefix)) continue;
+				found.add (new Entry (
+					ze.getName (), jar, true, ze.getSize (), ze.getCrc (), ze.getTime ()
+				));
+			}
+		}
+		catch (ZipException e) {
+			// not a jar, it has no resources
+		}
+		finally {
+			try { if (zip != null) zip.close (); } catch (Exception e) {};
+		}
+	}
+
+	private static void zzScanDir (
+		File root, File dir, String path, String prefix, List<Entry> found
+	) {
+		String[] list = dir.list ();
+		if (list == null) return;
+		for (String child : list) {
+			String childPath = path + child;
+			File f = new File (dir, child);
+			if (f.isDirectory ()) {
+				// Only descend into directories that can hold matching names
+				String dirPath = childPath + "/";
+				if (dirPath.startsWith (prefix) || prefix.startsWith (dirPath))
+					zzScanDir (root, f, dirPath, prefix, found);
+			}
+			else if (childPath.startsWith (prefix)) {
+				found.add (new Entry (childPath, root, false, -1, -1, -1));
+			}
+		}
+	}
+}
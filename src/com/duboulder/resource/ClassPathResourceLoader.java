@@ -2,6 +2,7 @@ package com.duboulder.resource;
 
 import java.io.*;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Load a resource from the class path using these class loaders:<br/>
@@ -13,7 +14,17 @@ import java.util.Date;
  *    3 - the system class loader
  *    		ClassLoader.getSystemClassLoader ()
  * </pre><br/>
- * The first class loader that returns an input stream for the resource.
+ * The first class loader that returns an input stream for the resource.<br/>
+ * <br/>
+ * In indexed mode the jars and directories of those class loaders are
+ * scanned once for the resources under the prefix (see ClassPathIndex).
+ * Lookups and last modified times then come from the index and jar
+ * resources are read directly from the jar. Resources missing from the
+ * index (e.g. the JDK&apos;s resources) are looked up in the class
+ * loaders. Call refreshIndex after resources are added, changing the
+ * prefix or suffix discards the index. When the class path can&apos;t be indexed (e.g.
+ * a class loader that isn&apos;t a URLClassLoader) the loader searches
+ * the class loaders as in the normal mode.
  */
 public class ClassPathResourceLoader implements ResourceLoader {
 	private boolean			_devMode;
@@ -21,6 +32,10 @@ public class ClassPathResourceLoader implements ResourceLoader {
 	private String			_prefix;
 	private String			_suffix;
 	private MultiSrcClassLoader _classLoader;
+	private PathResolver	_paths;
+	private boolean			_indexed;
+	private volatile ClassPathIndex _index;
+	private volatile boolean _indexFailed;
 
 	public ClassPathResourceLoader (String name) {
 		if (name == null || name.isEmpty())
@@ -30,6 +45,7 @@ public class ClassPathResourceLoader implements ResourceLoader {
 		_devMode = false;
 		_prefix = "";
 		_suffix = "";
+		_paths = new PathResolver (_prefix, _suffix, true);
 		_classLoader = new MultiSrcClassLoader (false, this.getClass ().getClassLoader ());
 	}
 
@@ -57,6 +73,8 @@ public class ClassPathResourceLoader implements ResourceLoader {
 			_prefix = "";
 		else
 			_prefix = prefix;
+		_paths = new PathResolver (_prefix, _suffix, true);
+		refreshIndex ();
 	}
 
 	/**
@@ -70,6 +88,29 @@ public class ClassPathResourceLoader implements ResourceLoader {
 			_suffix = "";
 		else
 			_suffix = suffix;
+		_paths = new PathResolver (_prefix, _suffix, true);
+		refreshIndex ();
+	}
+
+	/**
+	 * Whether resources are looked up in an index of the class path
+	 * @return true for indexed mode (default false)
+	 */
+	public boolean getIndexed () { return _indexed; }
+	public void setIndexed (boolean f) {
+		_indexed = f;
+		if (!f) refreshIndex ();
+	}
+
+	/**
+	 * Discard the class path index, the next lookup in indexed mode
+	 * scans the class path again. The old index&apos;s jars are not closed,
+	 * other threads may still be reading streams opened from them; they
+	 * are closed when the old index is garbage collected.
+	 */
+	public synchronized void refreshIndex () {
+		_index = null;
+		_indexFailed = false;
 	}
 
 	@Override
@@ -79,7 +120,15 @@ public class ClassPathResourceLoader implements ResourceLoader {
 
 	@Override
 	public Date getLastModified (String resourcePath) {
-		return null;
+		if (!_indexed) return null;
+		String resPath = zFullPath (resourcePath);
+		ClassPathIndex index = zzIndex ();
+		if (index == null) return null;
+
+		ClassPathIndex.Entry entry = index.get (resPath);
+		if (entry == null) return null;
+		long time = entry.getLastModified ();
+		return (time < 0 ? null : new Date (time));
 	}
 
 	@Override
@@ -94,6 +143,12 @@ public class ClassPathResourceLoader implements ResourceLoader {
 			System.err.flush ();
 		}
 
+		ClassPathIndex index = (_indexed ? zzIndex () : null);
+		if (index != null) {
+			ClassPathIndex.Entry entry = index.get (resPath);
+			if (entry != null) return index.open (entry);
+		}
+
 		InputStream is = _classLoader.getResourceAsStream (resPath);
 		if (is != null) return is;
 
@@ -113,23 +168,45 @@ public class ClassPathResourceLoader implements ResourceLoader {
 		if (resourcePath.isEmpty ())
 			throw new IllegalArgumentException ("resource path is empty");
 
-		StringBuilder sb = new StringBuilder ();
-		sb.append (_prefix);
-
-		// Prevent adding a double slash (//) at the boundary
-		// between the prefix and the resource path
-		if (resourcePath.charAt (0) == '/' && _prefix.endsWith ("/"))
-			sb.append (resourcePath.subSequence (1, resourcePath.length ()));
-		else
-			sb.append (resourcePath);
-
-		if (!_suffix.isEmpty () && !resourcePath.endsWith (_suffix))
-			sb.append (_suffix);
-
 		// ClassLoaders don't work with leading / - treating it as a
 		// component separator
-		if (sb.charAt(0) == '/')
-			return sb.substring (1);
-		return sb.toString ();
+		return _paths.resolve (resourcePath);
+	}
+
+	// Answer the class path index, building it when needed, or null if
+	// the class path can't be indexed
+	private ClassPathIndex zzIndex () {
+		ClassPathIndex index = _index;
+		if (index != null || _indexFailed) return index;
+
+		synchronized (this) {
+			if (_index != null || _indexFailed) return _index;
+
+			List<File> classPath = _classLoader.getClassPathEntries ();
+			try {
+				if (classPath != null)
+					_index = ClassPathIndex.Scan (classPath, _prefix);
+			}
+			catch (IOException e) {
+				if (_devMode) {
+					System.err.println ("ClassPath index error: " + e);
+					System.err.flush ();
+				}
+			}
+			if (_index == null) {
+				_indexFailed = true;
+				if (_devMode) {
+					System.err.println ("ClassPath can't be indexed, searching the class loaders");
+					System.err.flush ();
+				}
+			}
+			else if (_devMode) {
+				System.err.println (
+					"ClassPath indexed " + _index.size () + " resources under '" + _prefix + "'"
+				);
+				System.err.flush ();
+			}
+			return _index;
+		}
 	}
 }
@@ -3,14 +3,27 @@ package com.duboulder.resource;
 import java.util.*;
 import java.io.*;
 import java.util.concurrent.*;
+import java.util.function.BiFunction;
 
 /**
  * A thread-safe cache of Entities. The supplied loader
  * is used to load entities when needed. The lifetime property
  * specifies how long an entity can be in the cache before it
- * is reloaded. A value of 0 means forever.
+ * is reloaded. A value of 0 means forever.<br/>
+ * <br/>
+ * An entity can have dependencies: other paths whose content
+ * went into it (e.g. included files). When an expired entity is
+ * checked, it is only kept if neither it nor any of its direct
+ * or transitive dependencies has been modified since it was
+ * loaded. Invalidating a path also invalidates the entities
+ * that depend on it.<br/>
+ * <br/>
+ * Bulk and async loads answer the unexpired cached entities. Expired
+ * entities are checked, and the others loaded, on the loader&apos;s
+ * executor. Concurrent bulk and async loads of
+ * the same path share one load (one future).
  */
-public class EntityCachingLoader<T> implements EntityLoader<T> {
+public class EntityCachingLoader<T> implements BulkEntityLoader<T>, AsyncEntityLoader<T> {
 	private static class ZEntityRef<T> {
 		long loadTime;
 		long expireTime;
@@ -27,6 +40,11 @@ public class EntityCachingLoader<T> implements EntityLoader<T> {
 	private long					_lifetime; // in milliseconds
 	private EntityLoader<T>			_entityLoader;
 	private ConcurrentHashMap<String,ZEntityRef<T>> _entities;
+	private ConcurrentHashMap<String,Set<String>> _dependencies; // path -> paths it uses
+	private Map<String,Set<String>> _dependents;	// path -> paths using it (_depLock)
+	private final Object			_depLock = new Object ();
+	private ConcurrentHashMap<String,CompletableFuture<T>> _loading;	// bulk/async loads in progress
+	private volatile Executor		_executor;
 
 	/**
 	 * A caching entity loader where cached entities have a specified
@@ -59,6 +77,10 @@ public class EntityCachingLoader<T> implements EntityLoader<T> {
 		_lifetime 		= lifetime;
 		_entityLoader 	= entityLoader;
 		_entities 		= new ConcurrentHashMap<String,ZEntityRef<T>> ();
+		_dependencies	= new ConcurrentHashMap<String,Set<String>> ();
+		_dependents		= new HashMap<String,Set<String>> ();
+		_loading		= new ConcurrentHashMap<String,CompletableFuture<T>> ();
+		_executor		= BulkLoads.DefaultExecutor ();
 	}
 
 	/**
@@ -74,6 +96,17 @@ public class EntityCachingLoader<T> implements EntityLoader<T> {
 	 */
 	public EntityLoader<T> getEntityLoader () { return _entityLoader; }
 
+	/**
+	 * The executor bulk and async loads run on
+	 * @return the executor (default BulkLoads.DefaultExecutor)
+	 */
+	public Executor getExecutor () { return _executor; }
+	public void setExecutor (Executor executor) {
+		if (executor == null)
+			throw new NullPointerException ("executor is null");
+		_executor = executor;
+	}
+
 	@Override
 	public String getEffectivePath(String path) {
 		return _entityLoader.getEffectivePath (path);
@@ -99,20 +132,8 @@ public class EntityCachingLoader<T> implements EntityLoader<T> {
 		// Check for an unexpired or unmodified entity
 		long reqTime = System.currentTimeMillis ();
 		ZEntityRef<T> entityRef = _entities.get (path);
-		if (entityRef != null) {
-			if (_lifetime <= 0 || reqTime <= entityRef.expireTime)
-				return entityRef.entity;
-
-			// Check the load time against the resource's last modified time
-			Date lastModified = _entityLoader.getLastModified (path);
-			if (lastModified != null) {
-				long lmTime = lastModified.getTime(); 
-				if (lmTime <= entityRef.loadTime) {
-					entityRef.expireTime = reqTime + _lifetime;
-					return entityRef.entity;
-				}
-			}
-		}
+		if (entityRef != null && zzIsCurrent (path, entityRef, reqTime))
+			return entityRef.entity;
 
 		// Load/reload the entity - synchronized to prevent races
 		// At this point:
@@ -123,23 +144,341 @@ public class EntityCachingLoader<T> implements EntityLoader<T> {
 			// done atomically - another thread could have done the
 			// update in between the read/test and the lock
 			entityRef = _entities.get (path);
-			if (entityRef != null) {
-				if (_lifetime <= 0 || reqTime <= entityRef.expireTime) 
-					return entityRef.entity;
-
-				Date lastModified = _entityLoader.getLastModified (path);
-				if (lastModified != null) {
-					long lmTime = lastModified.getTime(); 
-					if (lmTime <= entityRef.loadTime) {
-						entityRef.expireTime = reqTime + _lifetime;
-						return entityRef.entity;
-					}
-				}
-			}
+			if (entityRef != null && zzIsCurrent (path, entityRef, reqTime))
+				return entityRef.entity;
 
 			T entity = _entityLoader.loadEntity (path);
 			_entities.put (path, new ZEntityRef<T> (entity, _lifetime));
+			zLoaded (path, entity);
 			return entity;
 		}
 	}
+
+	/**
+	 * Load the entity for the path with the base loader and store it in the
+	 * cache, replacing any cached entry. Unlike loadEntity, the base loader
+	 * is called without holding the cache lock, so several paths can be
+	 * preloaded concurrently (e.g. during a start-up warm-up).
+	 * @param path the entity path (not null, not empty)
+	 * @return the loaded entity
+	 * @throws ResourceNotFoundException if the resource does not exist
+	 * @throws IOException if there is an error loading the entity
+	 */
+	public T preloadEntity (String path) throws IOException, ResourceNotFoundException {
+		if (path == null)
+			throw new NullPointerException ("path is null");
+		if (path.isEmpty ())
+			throw new IllegalArgumentException ("path is empty");
+
+		T entity = _entityLoader.loadEntity (path);
+		_entities.put (path, new ZEntityRef<T> (entity, _lifetime));
+		zLoaded (path, entity);
+		return entity;
+	}
+
+	/**
+	 * Answer the unexpired cached entity, or the future of its load. An
+	 * expired entity is checked on the executor and reused when it is
+	 * unmodified. A load already in progress for the path is shared.
+	 */
+	@Override
+	public CompletableFuture<T> loadEntityAsync (String path) {
+		if (path == null)
+			throw new NullPointerException ("path is null");
+		if (path.isEmpty ())
+			throw new IllegalArgumentException ("path is empty");
+
+		ZEntityRef<T> entityRef = _entities.get (path);
+		if (entityRef != null && zzIsUnexpired (entityRef, System.currentTimeMillis ()))
+			return CompletableFuture.completedFuture (entityRef.entity);
+		return zzSharedLoad (path, _executor);
+	}
+
+	/**
+	 * Answer the cached entities for the paths and load the others in
+	 * parallel. A path already being loaded by another bulk load is not
+	 * loaded again.
+	 */
+	@Override
+	public BulkLoadResult<T> loadEntities (Collection<String> paths) {
+		Map<String,CompletableFuture<T>> futures = zzStartLoads (paths, _executor);
+		BulkLoadResult<T> result = new BulkLoadResult<T> ();
+		boolean interrupted = false;
+		for (Map.Entry<String,CompletableFuture<T>> e : futures.entrySet ()) {
+			// Keep waiting after an interrupt, the loads are running anyway
+			while (true) {
+				try {
+					result.putEntity (e.getKey (), e.getValue ().get ());
+					break;
+				}
+				catch (InterruptedException ie) {
+					interrupted = true;
+				}
+				catch (ExecutionException ee) {
+					result.putError (e.getKey (), zzError (ee.getCause ()));
+					break;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread ().interrupt ();
+		return result;
+	}
+
+	@Override
+	public CompletableFuture<BulkLoadResult<T>> loadEntitiesAsync (
+		Collection<String> paths, Executor executor
+	) {
+		final Map<String,CompletableFuture<T>> futures = zzStartLoads (
+			paths, (executor == null ? _executor : executor)
+		);
+		CompletableFuture<?>[] all = futures.values ().toArray (
+			new CompletableFuture<?>[futures.size ()]
+		);
+		return CompletableFuture.allOf (all).handle (
+			new BiFunction<Void,Throwable,BulkLoadResult<T>> () {
+				@Override
+				public BulkLoadResult<T> apply (Void v, Throwable t) {
+					BulkLoadResult<T> result = new BulkLoadResult<T> ();
+					for (Map.Entry<String,CompletableFuture<T>> e : futures.entrySet ()) {
+						try {
+							result.putEntity (e.getKey (), e.getValue ().join ());
+						}
+						catch (CompletionException ce) {
+							result.putError (e.getKey (), zzError (ce.getCause ()));
+						}
+						catch (CancellationException ce) {
+							result.putError (e.getKey (), ce);
+						}
+					}
+					return result;
+				}
+			}
+		);
+	}
+
+	/**
+	 * Record the paths the entity for path depends on, replacing any
+	 * previously recorded dependencies. The dependency paths must be
+	 * valid for the entity loader&apos;s getLastModified.
+	 * @param path the entity path (not null, not empty)
+	 * @param dependencyPaths the paths of the dependencies (null or
+	 * 		empty to remove the dependencies)
+	 */
+	public void setDependencies (String path, Collection<String> dependencyPaths) {
+		if (path == null)
+			throw new NullPointerException ("path is null");
+		if (path.isEmpty ())
+			throw new IllegalArgumentException ("path is empty");
+
+		Set<String> deps = new HashSet<String> ();
+		if (dependencyPaths != null) {
+			for (String dep : dependencyPaths) {
+				if (dep != null && !dep.isEmpty () && !dep.equals (path))
+					deps.add (dep);
+			}
+		}
+
+		synchronized (_depLock) {
+			zzRemoveDependencies (path);
+			if (deps.isEmpty ()) return;
+
+			_dependencies.put (path, Collections.unmodifiableSet (deps));
+			for (String dep : deps) {
+				Set<String> users = _dependents.get (dep);
+				if (users == null) {
+					users = new HashSet<String> ();
+					_dependents.put (dep, users);
+				}
+				users.add (path);
+			}
+		}
+	}
+
+	/**
+	 * Answer the recorded direct dependencies of a path
+	 * @param path the entity path (not null)
+	 * @return the dependency paths (never null, may be empty)
+	 */
+	public Set<String> getDependencies (String path) {
+		if (path == null)
+			throw new NullPointerException ("path is null");
+		Set<String> deps = _dependencies.get (path);
+		return deps == null ? Collections.<String>emptySet () : deps;
+	}
+
+	/**
+	 * Remove the cached entity for the path and the cached entities
+	 * that directly or transitively depend on it.
+	 * @param path the path of the changed entity or dependency (not null)
+	 * @return the number of cached entities removed
+	 */
+	public int invalidate (String path) {
+		if (path == null)
+			throw new NullPointerException ("path is null");
+
+		// Collect the path and all of its dependents
+		Set<String> paths = new HashSet<String> ();
+		LinkedList<String> todo = new LinkedList<String> ();
+		todo.add (path);
+		synchronized (_depLock) {
+			while (!todo.isEmpty ()) {
+				String p = todo.removeFirst ();
+				if (!paths.add (p)) continue;
+				Set<String> users = _dependents.get (p);
+				if (users != null) todo.addAll (users);
+			}
+		}
+
+		int n = 0;
+		for (String p : paths) {
+			if (_entities.remove (p) != null) n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Called after an entity has been loaded and stored in the cache.
+	 * Subclasses can override this to record the entity&apos;s
+	 * dependencies. The default does nothing.
+	 * @param path the entity path
+	 * @param entity the loaded entity
+	 */
+	protected void zLoaded (String path, T entity) {}
+
+	/**
+	 * Answer whether a dependency was modified after an entity using it
+	 * was loaded. The default checks the entity loader&apos;s
+	 * getLastModified and ignores unknown modification times. Subclasses
+	 * whose dependency paths are not entity loader paths override this.
+	 * @param depPath the dependency path
+	 * @param loadTime the load time of the entity using it
+	 * @return true if the dependency was modified
+	 */
+	protected boolean zDependencyModified (String depPath, long loadTime) {
+		Date lastModified = _entityLoader.getLastModified (depPath);
+		return lastModified != null && lastModified.getTime () > loadTime;
+	}
+
+	// Answer whether a cached entity can be used without checking it
+	private boolean zzIsUnexpired (ZEntityRef<T> entityRef, long reqTime) {
+		return _lifetime <= 0 || reqTime <= entityRef.expireTime;
+	}
+
+	// Answer whether a cached entity can be used. An expired entity
+	// is renewed when it and all of its dependencies are unmodified
+	// since the entity was loaded.
+	private boolean zzIsCurrent (String path, ZEntityRef<T> entityRef, long reqTime) {
+		if (zzIsUnexpired (entityRef, reqTime))
+			return true;
+
+		// Check the load time against the resource's last modified time
+		Date lastModified = _entityLoader.getLastModified (path);
+		if (lastModified == null || lastModified.getTime () > entityRef.loadTime)
+			return false;
+
+		// Then the dependencies
+		Set<String> checked = new HashSet<String> ();
+		checked.add (path);
+		LinkedList<String> todo = new LinkedList<String> (getDependencies (path));
+		while (!todo.isEmpty ()) {
+			String dep = todo.removeFirst ();
+			if (!checked.add (dep)) continue;
+
+			if (zDependencyModified (dep, entityRef.loadTime))
+				return false;
+			todo.addAll (getDependencies (dep));
+		}
+
+		entityRef.expireTime = reqTime + _lifetime;
+		return true;
+	}
+
+	// Answer a future for each path: completed for unexpired cached
+	// entities, otherwise the shared future of the path's load
+	private Map<String,CompletableFuture<T>> zzStartLoads (
+		Collection<String> paths, Executor executor
+	) {
+		if (paths == null)
+			throw new NullPointerException ("paths is null");
+
+		long reqTime = System.currentTimeMillis ();
+		Map<String,CompletableFuture<T>> futures = new LinkedHashMap<String,CompletableFuture<T>> ();
+		for (String path : paths) {
+			if (futures.containsKey (path)) continue;
+			if (path == null || path.isEmpty ()) {
+				CompletableFuture<T> f = new CompletableFuture<T> ();
+				f.completeExceptionally (new IllegalArgumentException ("path is null or empty"));
+				futures.put (String.valueOf (path), f);
+				continue;
+			}
+
+			ZEntityRef<T> entityRef = _entities.get (path);
+			if (entityRef != null && zzIsUnexpired (entityRef, reqTime))
+				futures.put (path, CompletableFuture.completedFuture (entityRef.entity));
+			else
+				futures.put (path, zzSharedLoad (path, executor));
+		}
+		return futures;
+	}
+
+	// Answer the future of the load in progress for path, starting
+	// the load when there is none. The load reuses the cached entity
+	// when it is still current (checked on the executor, it may do I/O).
+	private CompletableFuture<T> zzSharedLoad (final String path, Executor executor) {
+		CompletableFuture<T> f = _loading.get (path);
+		if (f != null) return f;
+
+		final CompletableFuture<T> load = new CompletableFuture<T> ();
+		f = _loading.putIfAbsent (path, load);
+		if (f != null) return f;
+
+		try {
+			executor.execute (new Runnable () {
+				@Override
+				public void run () {
+					try {
+						ZEntityRef<T> entityRef = _entities.get (path);
+						if (entityRef != null && zzIsCurrent (path, entityRef, System.currentTimeMillis ()))
+							load.complete (entityRef.entity);
+						else
+							load.complete (preloadEntity (path));
+					}
+					catch (Throwable t) {
+						load.completeExceptionally (t);
+					}
+					finally {
+						_loading.remove (path, load);
+					}
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			// e.g. RejectedExecutionException
+			_loading.remove (path, load);
+			load.completeExceptionally (e);
+		}
+		return load;
+	}
+
+	// Answer the bulk load error for a failed load. Errors like a
+	// NoClassDefFoundError or AssertionError only fail their path and are
+	// wrapped in an ExecutionException, the vm errors (out of memory, stack
+	// overflow) fail the batch.
+	private static Exception zzError (Throwable t) {
+		if (t instanceof Exception) return (Exception) t;
+		if (t instanceof VirtualMachineError) throw (VirtualMachineError) t;
+		return new ExecutionException (t);
+	}
+
+	private void zzRemoveDependencies (String path) {
+		Set<String> oldDeps = _dependencies.remove (path);
+		if (oldDeps == null) return;
+		for (String dep : oldDeps) {
+			Set<String> users = _dependents.get (dep);
+			if (users == null) continue;
+			users.remove (path);
+			if (users.isEmpty ()) _dependents.remove (dep);
+		}
+	}
 }
@@ -1,7 +1,7 @@
 package com.duboulder.resource;
 
 import java.io.*;
-import java.util.Date;
+import java.util.*;
 
 /**
  * A resource loader that accesses the local file system. The
@@ -10,10 +10,11 @@ import java.util.Date;
  * This loader does not sanitize resource paths - that is the
  * caller's responsibility.
  */
-public class FileSystemResourceLoader implements ResourceLoader {
+public class FileSystemResourceLoader implements ResourceLoader, ResourceLister {
 	private String			_name;
 	private String			_rootPath;
 	private String			_pathSuffix;
+	private PathResolver	_paths;
 
 	public FileSystemResourceLoader () {
 		this (FileSystemResourceLoader.class.getName (), "", "");
@@ -42,6 +43,7 @@ public class FileSystemResourceLoader implements ResourceLoader {
 			_rootPath = "";
 		else
 			_rootPath = path;
+		_paths = new PathResolver (_rootPath, _pathSuffix);
 		return this;
 	}
 
@@ -55,6 +57,7 @@ public class FileSystemResourceLoader implements ResourceLoader {
 			_pathSuffix = "";
 		else
 			_pathSuffix = suffix;
+		_paths = new PathResolver (_rootPath, _pathSuffix);
 		return this;
 	}
 
@@ -80,6 +83,39 @@ public class FileSystemResourceLoader implements ResourceLoader {
 		}
 	}
 
+	/**
+	 * Walk the directory tree under root path + dirPath and answer the
+	 * paths of the regular files found, relative to the root path.
+	 * Paths use / as the separator.
+	 */
+	@Override
+	public List<String> listResources (String dirPath, String suffix)
+		throws IOException
+	{
+		if (dirPath == null)
+			throw new NullPointerException ("dir path is null");
+
+		String relDir = dirPath;
+		while (relDir.startsWith ("/"))
+			relDir = relDir.substring (1);
+		if (!relDir.isEmpty () && !relDir.endsWith ("/"))
+			relDir += "/";
+
+		// Same concatenation as zGetPath so listed paths map back to
+		// the same files
+		String fsDir = _rootPath + relDir;
+		File dir = new File (fsDir.isEmpty () ? "." : fsDir);
+		if (!dir.isDirectory ())
+			throw new IOException (
+				"'" + dir.getPath () + "' is not a readable directory"
+			);
+
+		List<String> paths = new ArrayList<String> ();
+		zzWalk (dir, relDir, (suffix == null ? "" : suffix), paths);
+		Collections.sort (paths);
+		return paths;
+	}
+
 	@Override
 	public String getName() {
 		return _name;
@@ -103,18 +139,24 @@ public class FileSystemResourceLoader implements ResourceLoader {
 		if (resourcePath.isEmpty ())
 			throw new IllegalArgumentException ("resource path is empty");
 
-		StringBuilder sb = new StringBuilder ();
-		sb.append (_rootPath);
+		return _paths.resolve (resourcePath);
+	}
 
-		// Prevent adding a double slash (//) at the boundary
-		// between the prefix and the resource path
-		if (resourcePath.charAt (0) == '/' &&  _rootPath.endsWith ("/"))
-			sb.append (resourcePath.subSequence (1, resourcePath.length ()));
-		else
-			sb.append (resourcePath);
+	private static void zzWalk (
+		File dir, String relDir, String suffix, List<String> paths
+	) throws IOException {
+		File[] entries = dir.listFiles ();
+		if (entries == null)
+			throw new IOException (
+				"Error listing directory '" + dir.getPath () + "'"
+			);
 
-		if (_pathSuffix.length () > 0 && !resourcePath.endsWith (_pathSuffix))
-			sb.append (_pathSuffix);
-		return sb.toString ();
+		for (File entry : entries) {
+			String relPath = relDir + entry.getName ();
+			if (entry.isDirectory ())
+				zzWalk (entry, relPath + "/", suffix, paths);
+			else if (entry.isFile () && relPath.endsWith (suffix))
+				paths.add (relPath);
+		}
 	}
 }
@@ -1,9 +1,10 @@
 package com.duboulder.resource;
 
 import java.io.*;
-import java.net.URL;
+import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.zip.*;
 
 /**
  * A class loader that attempts to find a class from multiple
@@ -17,17 +18,55 @@ import java.util.concurrent.*;
  *    this.getClass ().getClassLoader ()
  *    ClassLoader.getSystemClassLoader ()
  * </div>
+ * <br/>
+ * Class lookups are cached. Names that none of the loaders can load are
+ * remembered too, so repeated probes for missing classes (e.g. by the
+ * Groovy compiler while resolving names) fail without asking the loaders
+ * again, with an exception that has no stack trace. Turn the negative cache
+ * off, or clear it, when the loaders can later find classes they could
+ * not find before.<br/>
+ * <br/>
+ * Resource lookups remember the loader that found each resource and its
+ * URL, so repeated opens go straight to that loader. The owning loaders
+ * can also be computed up front from the loaders&apos; jars and
+ * directories (see precomputeResourceIndex). Resource names that none
+ * of the loaders can find are only remembered when resource negative
+ * caching is turned on (it is off by default), since resources are often
+ * probed for before they are generated or deployed.
  */
 public class MultiSrcClassLoader extends ClassLoader {
+	// Thrown for cached misses, without the cost of a stack trace. A
+	// new one is thrown each time, callers may add to it.
+	private static class ZClassNotFoundException extends ClassNotFoundException {
+		private static final long serialVersionUID = 1L;
+		ZClassNotFoundException (String name) { super (name); }
+		@Override
+		public synchronized Throwable fillInStackTrace () { return this; }
+	}
+
+	private static final int	MAX_MISSES = 10000;	// negative cache size limit
+
 	private boolean				_verbose;
 	private List<ClassLoader>	_loaders;
 	private Map<String,Class<?>> _classes;
+	private ConcurrentHashMap<String,Boolean> _misses;
+	private volatile boolean	_negativeCaching;
+	private ConcurrentHashMap<String,ClassLoader> _resOwners;
+	private ConcurrentHashMap<String,URL> _resUrls;
+	private ConcurrentHashMap<String,Boolean> _resMisses;
+	private volatile boolean	_resNegativeCaching;
 
 	public MultiSrcClassLoader (boolean verbose, ClassLoader parent) {
 		super (null);
 		_verbose = verbose;
 		_loaders = new ArrayList<ClassLoader> (4);
 		_classes = new ConcurrentHashMap<String,Class<?>> ();
+		_misses = new ConcurrentHashMap<String,Boolean> ();
+		_negativeCaching = true;
+		_resOwners = new ConcurrentHashMap<String,ClassLoader> ();
+		_resUrls = new ConcurrentHashMap<String,URL> ();
+		_resMisses = new ConcurrentHashMap<String,Boolean> ();
+		_resNegativeCaching = false;
 
 		// The class loaders to try
 		ClassLoader[] loaderList = {
@@ -63,6 +102,91 @@ public class MultiSrcClassLoader extends ClassLoader {
 	 */
 	public boolean getVerbose () { return _verbose; }
 
+	/**
+	 * Whether class names that can&apos;t be loaded are remembered
+	 * @return true if misses are cached (default true)
+	 */
+	public boolean getNegativeCaching () { return _negativeCaching; }
+	public void setNegativeCaching (boolean f) {
+		_negativeCaching = f;
+		if (!f) _misses.clear ();
+	}
+
+	/**
+	 * Whether resource names that can&apos;t be found are remembered
+	 * @return true if resource misses are cached (default false)
+	 */
+	public boolean getResourceNegativeCaching () { return _resNegativeCaching; }
+	public void setResourceNegativeCaching (boolean f) {
+		_resNegativeCaching = f;
+		if (!f) _resMisses.clear ();
+	}
+
+	/**
+	 * Forget the class and resource names that could not be loaded
+	 */
+	public void clearMisses () {
+		_misses.clear ();
+		_resMisses.clear ();
+	}
+
+	/**
+	 * Forget the resource owners and URLs, including the precomputed ones
+	 */
+	public void clearResourceIndex () {
+		_resOwners.clear ();
+		_resUrls.clear ();
+	}
+
+	/**
+	 * Record the owning loader of each resource in the jars and directories
+	 * of the loaders. The loaders and their parents must be URLClassLoaders,
+	 * the system class loader (its entries are taken from java.class.path)
+	 * or its parent (JDK resources are not indexed). Resources not found in
+	 * the index are still searched for.
+	 * @param prefix only index resources whose names start with this (may be null)
+	 * @return false if the index could not be computed for all of the loaders
+	 */
+	public boolean precomputeResourceIndex (String prefix) {
+		if (prefix == null) prefix = "";
+		if (prefix.startsWith ("/")) prefix = prefix.substring (1);
+
+		// The class path entries visible through each loader, in the order
+		// the loader (parent first) searches them
+		List<List<File>> loaderEntries = new ArrayList<List<File>> (_loaders.size ());
+		for (ClassLoader loader : _loaders) {
+			List<File> entries = zzClassPathEntries (loader);
+			if (entries == null) {
+				if (_verbose) {
+					System.err.println (
+						"MultiSrcClassLoader: can't index resources of " +
+							loader.getClass ().getName ()
+					);
+					System.err.flush ();
+				}
+				return false;
+			}
+			loaderEntries.add (entries);
+		}
+
+		Map<File,List<String>> names = new HashMap<File,List<String>> ();
+		for (int i = 0; i < _loaders.size (); i++) {
+			ClassLoader loader = _loaders.get (i);
+			for (File entry : loaderEntries.get (i)) {
+				List<String> entryNames = names.get (entry);
+				if (entryNames == null) {
+					entryNames = zzEntryNames (entry, prefix);
+					names.put (entry, entryNames);
+				}
+				for (String name : entryNames) {
+					_resMisses.remove (name);
+					_resOwners.putIfAbsent (name, loader);
+				}
+			}
+		}
+		return true;
+	}
+
 	@Override
 	protected Class<?> findClass(String name) throws ClassNotFoundException {
 //		if (_verbose) {
@@ -70,19 +194,7 @@ public class MultiSrcClassLoader extends ClassLoader {
 //			System.err.flush ();
 //		}
 
-		Class<?> cls = _classes.get (name);
-		if (cls != null) return cls;
-
-		synchronized (this) {
-			// Test again since the test done before is not
-			// part of the protected update (not atomic)
-			cls = _classes.get (name);
-			if (cls != null) return cls;
-
-			cls = zLoadClass (name);
-			if (cls != null) _classes.put (name, cls);
-			return cls;
-		}
+		return zLoadClass (name);
 	}
 
 	// findClass is protected so we can't delegate from there. This is one
@@ -109,6 +221,15 @@ public class MultiSrcClassLoader extends ClassLoader {
 //			System.err.flush ();
 //		}
 
+		if (_resMisses.containsKey (name)) return null;
+		ClassLoader owner = _resOwners.get (name);
+		if (owner != null) {
+			InputStream is = owner.getResourceAsStream (name);
+			if (is != null) return is;
+			_resOwners.remove (name, owner);
+			_resUrls.remove (name);
+		}
+
 		InputStream is = null;
 		for (ClassLoader loader : _loaders) {
 			is = loader.getResourceAsStream (name);
@@ -120,9 +241,11 @@ public class MultiSrcClassLoader extends ClassLoader {
 					);
 					System.err.flush ();					
 				}
+				_resOwners.put (name, loader);
 				break;
 			}
 		}
+		if (is == null) zzResourceMiss (name);
 		return is;
 	}
 
@@ -135,7 +258,19 @@ public class MultiSrcClassLoader extends ClassLoader {
 //			System.err.flush ();
 //		}
 
-		URL url = null;
+		URL url = _resUrls.get (name);
+		if (url != null) return url;
+		if (_resMisses.containsKey (name)) return null;
+		ClassLoader owner = _resOwners.get (name);
+		if (owner != null) {
+			url = owner.getResource (name);
+			if (url != null) {
+				_resUrls.put (name, url);
+				return url;
+			}
+			_resOwners.remove (name, owner);
+		}
+
 		for (ClassLoader loader : _loaders) {
 			url = loader.getResource (name);
 			if (url != null) {
@@ -146,9 +281,12 @@ public class MultiSrcClassLoader extends ClassLoader {
 					);
 					System.err.flush ();
 				}
+				_resOwners.put (name, loader);
+				_resUrls.put (name, url);
 				break;
 			}
 		}
+		if (url == null) zzResourceMiss (name);
 		return url;
 	}
 
@@ -161,7 +299,7 @@ public class MultiSrcClassLoader extends ClassLoader {
 //			System.err.flush ();
 //		}
 
-		List<URL> urls = new LinkedList<URL> ();
+		List<URL> urls = new ArrayList<URL> ();
 		for (ClassLoader loader : _loaders) {
 			Enumeration<URL> loaderUrls = loader.getResources (name);
 			while (loaderUrls.hasMoreElements ()) {
@@ -172,13 +310,21 @@ public class MultiSrcClassLoader extends ClassLoader {
 		return Collections.enumeration(urls);
 	}
 
+	// Answer the cached class or the class from the first loader that
+	// can load it. Concurrent loads of the same name may both ask the
+	// loaders, the loaders answer the same class.
 	private Class<?> zLoadClass (String name)
 		throws ClassNotFoundException
 	{
-		ClassNotFoundException e = null;
+		Class<?> cls = _classes.get (name);
+		if (cls != null) return cls;
+		if (_misses.containsKey (name))
+			throw new ZClassNotFoundException (name);
+
+		ClassNotFoundException miss = null;
 		for (ClassLoader loader : _loaders) {
 			try {
-				Class<?> cls = loader.loadClass (name);
+				cls = loader.loadClass (name);
 				if (cls != null) {
 					if (_verbose) {
 						System.err.println (
@@ -187,23 +333,130 @@ public class MultiSrcClassLoader extends ClassLoader {
 						);
 						System.err.flush ();
 					}
+					_classes.put (name, cls);
 					return cls;
 				}
 			}
 			catch (ClassNotFoundException nf) {
-				if (e == null) e = nf;
+				// try the next loader
+				if (miss == null) miss = nf;
 			}
 		}
 		
 //		if (_verbose) {
 //			System.err.println (
-//				"MultSrcClassLoader: error loading " + name + 
-//					(e == null || e.getMessage () == null ? "" : 
-//						":\n    " + e.getMessage ())
+//				"MultSrcClassLoader: error loading " + name
 //			);
 //			System.err.flush ();
 //		}
 
-		throw e;
+		if (_negativeCaching) {
+			if (_misses.size () >= MAX_MISSES) _misses.clear ();
+			_misses.put (name, Boolean.TRUE);
+		}
+		// The first loader's exception, as before caching
+		if (miss == null) miss = new ClassNotFoundException (name);
+		throw miss;
+	}
+
+	// Answer the class path entries of all of the loaders, in search order
+	// without duplicates, or null if one of them can't be indexed
+	List<File> getClassPathEntries () {
+		LinkedHashSet<File> entries = new LinkedHashSet<File> ();
+		for (ClassLoader loader : _loaders) {
+			List<File> loaderEntries = zzClassPathEntries (loader);
+			if (loaderEntries == null) return null;
+			entries.addAll (loaderEntries);
+		}
+		return new ArrayList<File> (entries);
+	}
+
+	private void zzResourceMiss (String name) {
+		if (!_resNegativeCaching) return;
+		if (_resMisses.size () >= MAX_MISSES) _resMisses.clear ();
+		_resMisses.put (name, Boolean.TRUE);
+	}
+
+	// Answer the class path entries searched by a loader and its parents,
+	// or null if one of them can't be indexed
+	private static List<File> zzClassPathEntries (ClassLoader loader) {
+		LinkedList<ClassLoader> chain = new LinkedList<ClassLoader> ();
+		for (ClassLoader cl = loader; cl != null; cl = cl.getParent ())
+			chain.addFirst (cl);
+
+		ClassLoader system = ClassLoader.getSystemClassLoader ();
+		List<File> entries = new ArrayList<File> ();
+		for (ClassLoader cl : chain) {
+			if (cl instanceof URLClassLoader) {
+				for (URL url : ((URLClassLoader) cl).getURLs ()) {
+					if (!"file".equals (url.getProtocol ())) return null;
+					try {
+						entries.add (new File (url.toURI ()));
+					}
+					catch (URISyntaxException e) {
+						return null;
+					}
+					catch (IllegalArgumentException e) {
+						return null;
+					}
+				}
+			}
+			else if (cl == system) {
+				String classPath = System.getProperty ("java.class.path", "");
+				for (String path : classPath.split (File.pathSeparator)) {
+					if (!path.isEmpty ())
+						entries.add (new File (path).getAbsoluteFile ());
+				}
+			}
+			else if (cl != system.getParent ()) {
+				return null;
+			}
+		}
+		return entries;
+	}
+
+	// Answer the resource names in a jar or directory that start with prefix
+	private static List<String> zzEntryNames (File entry, String prefix) {
+		List<String> names = new ArrayList<String> ();
+		if (entry.isDirectory ()) {
+			zzDirNames (entry, "", prefix, names);
+		}
+		else if (entry.isFile ()) {
+			ZipFile zip = null;
+			try {
+				zip = new ZipFile (entry);
+				Enumeration<? extends ZipEntry> zipEntries = zip.entries ();
+				while (zipEntries.hasMoreElements ()) {
+					ZipEntry ze = zipEntries.nextElement ();
+					if (!ze.isDirectory () && ze.getName ().startsWith (prefix))
+						names.add (ze.getName ());
+				}
+			}
+			catch (IOException e) {
+				// not a jar, it has no resources
+			}
+			finally {
+				try { if (zip != null) zip.close (); } catch (Exception e) {};
+			}
+		}
+		return names;
+	}
+
+	private static void zzDirNames (File dir, String path, String prefix, List<String> names) {
+		String[] list = dir.list ();
+		if (list == null) return;
+		for (String child : list) {
+			String childPath = path + child;
+			File f = new File (dir, child);
+			if (f.isDirectory ()) {
+				// Only descend into directories that can hold matching names
+				String dirPath = childPath + "/";
+				if (dirPath.startsWith (prefix) || prefix.startsWith (dirPath))
+					zzDirNames (f, dirPath, prefix, names);
+			}
+			else if (childPath.startsWith (prefix)) {
+				names.add (childPath);
+			}
+		}
 	}
 }
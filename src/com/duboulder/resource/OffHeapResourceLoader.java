@@ -0,0 +1,282 @@
+package com.duboulder.resource;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * A resource loader that keeps a snapshot of the resources of another
+ * loader outside of the java heap. The resources under a directory path
+ * are listed with the wrapped loader (it must implement ResourceLister)
+ * and their content is copied into direct ByteBuffer slabs or, when an
+ * arena directory is set, into a memory mapped arena file. Only the path
+ * index is kept on the heap.<br/>
+ * <br/>
+ * Resources in the snapshot are answered as streams and read-only
+ * buffers over the stored bytes, without copying. Their last modified
+ * time is the time recorded when the snapshot was taken. Other resources
+ * are read with the wrapped loader.<br/>
+ * <br/>
+ * refresh takes a new snapshot and replaces the current one in one step,
+ * readers see either the old or the new snapshot. The loader is
+ * thread-safe if the wrapped loader is.
+ */
+public class OffHeapResourceLoader implements ResourceLoader, ResourceLister {
+	private static final int	DEFAULT_SLAB_SIZE = 16 * 1024 * 1024;
+
+	private static class ZSlot {
+		final int		slab;
+		final int		offset;
+		final int		length;
+		final Date		lastModified;	// null if not known
+
+		ZSlot (int slab, int offset, int length, Date lastModified) {
+			this.slab			= slab;
+			this.offset			= offset;
+			this.length			= length;
+			this.lastModified	= lastModified;
+		}
+	}
+
+	private static class ZStore {
+		final Map<String,ZSlot>	slots;
+		final ByteBuffer[]		slabs;
+		final long				bytes;
+
+		ZStore (Map<String,ZSlot> slots, ByteBuffer[] slabs, long bytes) {
+			this.slots	= slots;
+			this.slabs	= slabs;
+			this.bytes	= bytes;
+		}
+	}
+
+	private String					_name;
+	private ResourceLoader			_loader;
+	private String					_dirPath;
+	private String					_suffix;
+	private int						_slabSize;
+	private File					_arenaDir;
+	private volatile ZStore			_store;
+
+	/**
+	 * Keep the resources of a loader off the heap. The first snapshot is
+	 * taken by refresh.
+	 * @param name the loader name (may be null, default is the class name)
+	 * @param loader the loader to read resources with, it must implement
+	 * 		ResourceLister (not null)
+	 * @param dirPath the directory path of the stored resources (not null,
+	 * 		empty for all resources)
+	 * @param suffix only store resources whose path ends with this (may be null)
+	 */
+	public OffHeapResourceLoader (
+		String name, ResourceLoader loader, String dirPath, String suffix
+	) {
+		if (loader == null)
+			throw new NullPointerException ("loader is null");
+		if (!(loader instanceof ResourceLister))
+			throw new IllegalArgumentException (
+				"loader '" + loader.getName () + "' can't list resources"
+			);
+		if (dirPath == null)
+			throw new NullPointerException ("dir path is null");
+
+		_name		= (name == null ? this.getClass ().getName () : name);
+		_loader		= loader;
+		_dirPath	= dirPath;
+		_suffix		= suffix;
+		_slabSize	= DEFAULT_SLAB_SIZE;
+		_arenaDir	= null;
+		_store		= new ZStore (new HashMap<String,ZSlot> (), new ByteBuffer[0], 0);
+	}
+
+	/**
+	 * The loader the resources are read with
+	 * @return the wrapped loader
+	 */
+	public ResourceLoader getLoader () { return _loader; }
+
+	/**
+	 * The size of the slabs resources are stored in, larger resources
+	 * get a slab of their own
+	 * @return the slab size in bytes (default 16MB)
+	 */
+	public int getSlabSize () { return _slabSize; }
+	public void setSlabSize (int slabSize) {
+		if (slabSize <= 0)
+			throw new IllegalArgumentException ("slab size must be > 0");
+		_slabSize = slabSize;
+	}
+
+	/**
+	 * The directory for the memory mapped arena files. When null the
+	 * content is stored in direct ByteBuffers.
+	 * @return the arena directory (default null)
+	 */
+	public File getArenaDir () { return _arenaDir; }
+	public void setArenaDir (File dir) { _arenaDir = dir; }
+
+	/**
+	 * The number of resources in the current snapshot
+	 * @return the resource count
+	 */
+	public int getResourceCount () { return _store.slots.size (); }
+
+	/**
+	 * The size of the content in the current snapshot
+	 * @return the size in bytes
+	 */
+	public long getStoredBytes () { return _store.bytes; }
+
+	/**
+	 * Take a new snapshot of the resources and replace the current one.
+	 * The current snapshot is kept when there is an error.
+	 * @throws IOException if the resources can&apos;t be listed, read or stored
+	 * @throws ResourceNotFoundException if a listed resource can&apos;t be found
+	 */
+	public synchronized void refresh () throws IOException, ResourceNotFoundException {
+		List<String> paths = ((ResourceLister) _loader).listResources (_dirPath, _suffix);
+
+		File arenaFile = null;
+		RandomAccessFile arena = null;
+		try {
+			if (_arenaDir != null) {
+				arenaFile = File.createTempFile ("resources", ".arena", _arenaDir);
+				arena = new RandomAccessFile (arenaFile, "rw");
+			}
+
+			Map<String,ZSlot> slots = new HashMap<String,ZSlot> (paths.size () * 2);
+			List<ByteBuffer> slabs = new ArrayList<ByteBuffer> ();
+			List<long[]> regions = new ArrayList<long[]> ();	// arena slabs: offset, length
+			int slabIndex = -1;
+			long slabStart = 0, slabCap = 0, slabFill = 0, bytes = 0;
+
+			for (String path : paths) {
+				Date lastModified = _loader.getLastModified (path);
+				byte[] content = zzRead (path);
+
+				// Start a new slab when the resource doesn't fit, a larger
+				// resource gets a slab of its own
+				if (slabIndex < 0 || slabFill + content.length > slabCap) {
+					if (arena != null && slabIndex >= 0)
+						regions.get (slabIndex)[1] = slabFill;
+					slabIndex++;
+					slabCap = Math.max (_slabSize, content.length);
+					slabFill = 0;
+					if (arena == null) {
+						slabs.add (ByteBuffer.allocateDirect ((int) slabCap));
+					}
+					else {
+						slabStart = arena.length ();
+						regions.add (new long[] { slabStart, 0 });
+					}
+				}
+
+				if (arena == null) {
+					slabs.get (slabIndex).put (content);
+				}
+				else {
+					arena.seek (slabStart + slabFill);
+					arena.write (content);
+				}
+				slots.put (path, new ZSlot (slabIndex, (int) slabFill, content.length, lastModified));
+				slabFill += content.length;
+				bytes += content.length;
+			}
+
+			ByteBuffer[] views;
+			if (arena == null) {
+				views = slabs.toArray (new ByteBuffer[slabs.size ()]);
+			}
+			else {
+				if (slabIndex >= 0)
+					regions.get (slabIndex)[1] = slabFill;
+				views = new ByteBuffer[regions.size ()];
+				FileChannel channel = arena.getChannel ();
+				for (int i = 0; i < views.length; i++) {
+					views[i] = channel.map (
+						FileChannel.MapMode.READ_ONLY, regions.get (i)[0], regions.get (i)[1]
+					);
+				}
+			}
+			for (int i = 0; i < views.length; i++)
+				views[i] = views[i].asReadOnlyBuffer ();
+
+			_store = new ZStore (slots, views, bytes);
+		}
+		finally {
+			// The mappings stay valid after the file is closed and deleted
+			try { if (arena != null) arena.close (); } catch (Exception e) {};
+			if (arenaFile != null && !arenaFile.delete ())
+				arenaFile.deleteOnExit ();
+		}
+	}
+
+	/**
+	 * Answer a read-only buffer over a stored resource&apos;s content
+	 * @param resourcePath the resource path (not null)
+	 * @return the buffer or null if the resource is not in the snapshot
+	 */
+	public ByteBuffer getBuffer (String resourcePath) {
+		if (resourcePath == null)
+			throw new NullPointerException ("resource path is null");
+		ZStore store = _store;
+		ZSlot slot = store.slots.get (resourcePath);
+		if (slot == null) return null;
+
+		ByteBuffer buf = store.slabs[slot.slab].duplicate ();
+		buf.limit (slot.offset + slot.length);
+		buf.position (slot.offset);
+		return buf.slice ();
+	}
+
+	@Override
+	public String getName () {
+		return _name;
+	}
+
+	@Override
+	public String getEffectivePath (String resourcePath) {
+		return _loader.getEffectivePath (resourcePath);
+	}
+
+	@Override
+	public Date getLastModified (String resourcePath) {
+		if (resourcePath == null)
+			throw new NullPointerException ("resource path is null");
+		ZSlot slot = _store.slots.get (resourcePath);
+		if (slot != null) return slot.lastModified;
+		return _loader.getLastModified (resourcePath);
+	}
+
+	@Override
+	public InputStream getInputStream (String resourcePath)
+		throws IOException, ResourceNotFoundException
+	{
+		ByteBuffer buf = getBuffer (resourcePath);
+		if (buf != null) return new ByteBufferInputStream (buf);
+		return _loader.getInputStream (resourcePath);
+	}
+
+	@Override
+	public List<String> listResources (String dirPath, String suffix)
+		throws IOException
+	{
+		return ((ResourceLister) _loader).listResources (dirPath, suffix);
+	}
+
+	private byte[] zzRead (String path) throws IOException, ResourceNotFoundException {
+		InputStream is = _loader.getInputStream (path);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream ();
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = is.read (buf)) >= 0)
+				out.write (buf, 0, n);
+			return out.toByteArray ();
+		}
+		finally {
+			try { is.close (); } catch (Exception e) {};
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package com.duboulder.resource;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * A resource loader reading resources from a pack file (see
+ * PackedResourceWriter and the packresources Ant task). The pack file is
+ * memory mapped when the loader is created and its index is read into
+ * sorted arrays, so a lookup is a binary search and reading a stored
+ * resource is a read of the mapped bytes.<br/>
+ * <br/>
+ * Pack file layout (big-endian):<br/>
+ * <pre>
+ *   header:  int magic, int version, int resource count, int index length
+ *   index:   per resource in path order
+ *              UTF path, byte flags, long time, long offset,
+ *              int stored length, int size
+ *   content: the stored resources, deflated when the flags say so
+ * </pre>
+ * The loader is thread-safe. Pack files are limited to 2GB.
+ */
+public class PackedResourceLoader implements ResourceLoader, ResourceLister {
+	static final int			MAGIC = 0x44425043;		// "DBPC"
+	static final int			VERSION = 1;
+	static final int			HEADER_LENGTH = 16;
+	static final byte			FLAG_DEFLATED = 1;
+
+	private String				_name;
+	private File				_packFile;
+	private ByteBuffer			_content;
+	private String[]			_paths;
+	private byte[]				_flags;
+	private long[]				_times;
+	private int[]				_offsets;
+	private int[]				_stored;
+	private int[]				_sizes;
+
+	/**
+	 * Map a pack file
+	 * @param name the loader name (may be null, default is the class name)
+	 * @param packFile the pack file (not null)
+	 * @throws IOException if the pack file can&apos;t be read or is not a pack file
+	 */
+	public PackedResourceLoader (String name, File packFile) throws IOException {
+		if (packFile == null)
+			throw new NullPointerException ("pack file is null");
+		_name		= (name == null ? this.getClass ().getName () : name);
+		_packFile	= packFile;
+
+		RandomAccessFile raf = new RandomAccessFile (packFile, "r");
+		try {
+			FileChannel channel = raf.getChannel ();
+			if (channel.size () > Integer.MAX_VALUE)
+				throw new IOException ("pack file '" + packFile.getPath () + "' is larger than 2GB");
+			_content = channel.map (FileChannel.MapMode.READ_ONLY, 0, channel.size ());
+		}
+		finally {
+			try { raf.close (); } catch (Exception e) {};
+		}
+		zzReadIndex ();
+	}
+
+	/**
+	 * The pack file
+	 * @return the pack file
+	 */
+	public File getPackFile () { return _packFile; }
+
+	/**
+	 * The number of resources in the pack
+	 * @return the resource count
+	 */
+	public int getResourceCount () { return _paths.length; }
+
+	@Override
+	public String getName () {
+		return _name;
+	}
+
+	@Override
+	public String getEffectivePath (String resourcePath) {
+		return _packFile.getPath () + "!/" + zzPath (resourcePath);
+	}
+
+	@Override
+	public Date getLastModified (String resourcePath) {
+		int i = Arrays.binarySearch (_paths, zzPath (resourcePath));
+		if (i < 0 || _times[i] <= 0) return null;
+		return new Date (_times[i]);
+	}
+
+	@Override
+	public InputStream getInputStream (String resourcePath)
+		throws IOException, ResourceNotFoundException
+	{
+		String path = zzPath (resourcePath);
+		int i = Arrays.binarySearch (_paths, path);
+		if (i < 0)
+			throw new ResourceNotFoundException (
+				"Resource '" + path + "' not in pack file '" + _packFile.getPath () + "'"
+			);
+
+		InputStream is = new ByteBufferInputStream (zzSlice (_offsets[i], _stored[i]));
+		if ((_flags[i] & FLAG_DEFLATED) != 0)
+			is = new InflaterInputStream (is, new Inflater (), Math.min (8192, _sizes[i] + 1)) {
+				@Override
+				public void close () throws IOException {
+					super.close ();
+					inf.end ();
+				}
+			};
+		return is;
+	}
+
+	/**
+	 * List the packed resources under a directory path
+	 */
+	@Override
+	public List<String> listResources (String dirPath, String suffix)
+		throws IOException
+	{
+		if (dirPath == null)
+			throw new NullPointerException ("dir path is null");
+
+		String relDir = dirPath;
+		while (relDir.startsWith ("/"))
+			relDir = relDir.substring (1);
+		if (!relDir.isEmpty () && !relDir.endsWith ("/"))
+			relDir += "/";
+		if (suffix == null) suffix = "";
+
+		List<String> paths = new ArrayList<String> ();
+		int i = Arrays.binarySearch (_paths, relDir);
+		if (i < 0) i = -i - 1;
+		for (; i < _paths.length && _paths[i].startsWith (relDir); i++) {
+			if (_paths[i].endsWith (suffix))
+				paths.add (_paths[i]);
+		}
+		return paths;
+	}
+
+	private void zzReadIndex () throws IOException {
+		ByteBuffer header = _content.duplicate ();
+		if (header.remaining () < HEADER_LENGTH || header.getInt () != MAGIC)
+			throw new IOException ("'" + _packFile.getPath () + "' is not a pack file");
+		int version = header.getInt ();
+		if (version != VERSION)
+			throw new IOException (
+				"pack file '" + _packFile.getPath () + "' has unsupported version " + version
+			);
+		int count = header.getInt ();
+		int indexLength = header.getInt ();
+		if (count < 0 || indexLength < 0 || HEADER_LENGTH + indexLength > _content.capacity ())
+			throw new IOException ("pack file '" + _packFile.getPath () + "' is damaged");
+
+		_paths		= new String[count];
+		_flags		= new byte[count];
+		_times		= new long[count];
+		_offsets	= new int[count];
+		_stored		= new int[count];
+		_sizes		= new int[count];
+
+		DataInputStream in = new DataInputStream (
+			new ByteBufferInputStream (zzSlice (HEADER_LENGTH, indexLength))
+		);
+		for (int i = 0; i < count; i++) {
+			_paths[i]	= in.readUTF ();
+			_flags[i]	= in.readByte ();
+			_times[i]	= in.readLong ();
+			long offset	= in.readLong ();
+			_stored[i]	= in.readInt ();
+			_sizes[i]	= in.readInt ();
+			if (offset < 0 || _stored[i] < 0 || offset + _stored[i] > _content.capacity ())
+				throw new IOException ("pack file '" + _packFile.getPath () + "' is damaged");
+			_offsets[i] = (int) offset;
+			if (i > 0 && _paths[i - 1].compareTo (_paths[i]) >= 0)
+				throw new IOException ("pack file '" + _packFile.getPath () + "' index is not sorted");
+		}
+	}
+
+	private ByteBuffer zzSlice (int offset, int length) {
+		ByteBuffer buf = _content.duplicate ();
+		buf.limit (offset + length);
+		buf.position (offset);
+		return buf.slice ();
+	}
+
+	private static String zzPath (String resourcePath) {
+		if (resourcePath == null)
+			throw new NullPointerException ("resource path is null");
+		if (resourcePath.isEmpty ())
+			throw new IllegalArgumentException ("resource path is empty");
+		int i = 0;
+		while (i < resourcePath.length () && resourcePath.charAt (i) == '/')
+			i++;
+		return (i == 0 ? resourcePath : resourcePath.substring (i));
+	}
+}
@@ -0,0 +1,176 @@
+package com.duboulder.resource;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Writes a pack file for PackedResourceLoader from a set of files. Each
+ * added file becomes a resource with the given path. With compression on,
+ * a resource is deflated when that makes it smaller.<br/>
+ * <br/>
+ * The pack is written to a temporary file that then replaces the pack
+ * file, so loaders that have the old pack mapped are not disturbed.
+ */
+public class PackedResourceWriter {
+	private boolean				_compress;
+	private TreeMap<String,File> _files;
+
+	/**
+	 * Start an empty pack
+	 * @param compress true to deflate resources when it makes them smaller
+	 */
+	public PackedResourceWriter (boolean compress) {
+		_compress = compress;
+		_files = new TreeMap<String,File> ();
+	}
+
+	/**
+	 * Whether resources are deflated
+	 * @return true when compression is on
+	 */
+	public boolean getCompress () { return _compress; }
+
+	/**
+	 * The number of resources added
+	 * @return the resource count
+	 */
+	public int size () { return _files.size (); }
+
+	/**
+	 * Add a file as a resource, a file added with the same path replaces it
+	 * @param path the resource path (not null, not empty, a leading / is dropped)
+	 * @param file the file with the resource content (not null)
+	 */
+	public void add (String path, File file) {
+		if (path == null)
+			throw new NullPointerException ("path is null");
+		if (file == null)
+			throw new NullPointerException ("file is null");
+		while (path.startsWith ("/"))
+			path = path.substring (1);
+		if (path.isEmpty ())
+			throw new IllegalArgumentException ("path is empty");
+		_files.put (path, file);
+	}
+
+	/**
+	 * Write the pack file
+	 * @param packFile the pack file to create or replace (not null)
+	 * @return the size of the pack file in bytes
+	 * @throws IOException if a file can&apos;t be read or the pack can&apos;t be written
+	 */
+	public long write (File packFile) throws IOException {
+		if (packFile == null)
+			throw new NullPointerException ("pack file is null");
+
+		int n = _files.size ();
+		String[] paths = _files.keySet ().toArray (new String[n]);
+		byte[] flags = new byte[n];
+		long[] times = new long[n];
+		long[] offsets = new long[n];
+		int[] stored = new int[n];
+		int[] sizes = new int[n];
+
+		// The index has the same length whatever its values are, so the
+		// content can be written after the space reserved for it
+		int indexLength = zzIndex (paths, flags, times, offsets, stored, sizes).length;
+		long contentStart = PackedResourceLoader.HEADER_LENGTH + indexLength;
+
+		File dir = packFile.getAbsoluteFile ().getParentFile ();
+		File tmpFile = File.createTempFile ("." + packFile.getName () + "-", ".tmp", dir);
+		FileChannel out = null;
+		try {
+			out = new FileOutputStream (tmpFile).getChannel ();
+			out.position (contentStart);
+			Deflater deflater = (_compress ? new Deflater (Deflater.BEST_COMPRESSION) : null);
+			try {
+				for (int i = 0; i < n; i++) {
+					File file = _files.get (paths[i]);
+					byte[] content = Files.readAllBytes (file.toPath ());
+					times[i] = file.lastModified ();
+					sizes[i] = content.length;
+					if (deflater != null) {
+						byte[] packed = zzDeflate (deflater, content);
+						if (packed.length < content.length) {
+							content = packed;
+							flags[i] = PackedResourceLoader.FLAG_DEFLATED;
+						}
+					}
+					offsets[i] = out.position ();
+					stored[i] = content.length;
+					zzWriteAll (out, ByteBuffer.wrap (content));
+				}
+			}
+			finally {
+				if (deflater != null) deflater.end ();
+			}
+
+			ByteBuffer header = ByteBuffer.allocate (PackedResourceLoader.HEADER_LENGTH);
+			header.putInt (PackedResourceLoader.MAGIC);
+			header.putInt (PackedResourceLoader.VERSION);
+			header.putInt (n);
+			header.putInt (indexLength);
+			header.flip ();
+			out.position (0);
+			zzWriteAll (out, header);
+			zzWriteAll (out, ByteBuffer.wrap (zzIndex (paths, flags, times, offsets, stored, sizes)));
+			long length = out.size ();
+			out.close ();
+			out = null;
+
+			try {
+				Files.move (
+					tmpFile.toPath (), packFile.toPath (),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE
+				);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move (tmpFile.toPath (), packFile.toPath (), StandardCopyOption.REPLACE_EXISTING);
+			}
+			return length;
+		}
+		finally {
+			try { if (out != null) out.close (); } catch (Exception e) {};
+			if (tmpFile.exists ()) tmpFile.delete ();
+		}
+	}
+
+	private static byte[] zzIndex (
+		String[] paths, byte[] flags, long[] times, long[] offsets, int[] stored, int[] sizes
+	) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream ();
+		DataOutputStream out = new DataOutputStream (buf);
+		for (int i = 0; i < paths.length; i++) {
+			out.writeUTF (paths[i]);
+			out.writeByte (flags[i]);
+			out.writeLong (times[i]);
+			out.writeLong (offsets[i]);
+			out.writeInt (stored[i]);
+			out.writeInt (sizes[i]);
+		}
+		out.flush ();
+		return buf.toByteArray ();
+	}
+
+	private static byte[] zzDeflate (Deflater deflater, byte[] content) {
+		deflater.reset ();
+		deflater.setInput (content);
+		deflater.finish ();
+		ByteArrayOutputStream out = new ByteArrayOutputStream (content.length / 2 + 64);
+		byte[] buf = new byte[8192];
+		while (!deflater.finished ()) {
+			int count = deflater.deflate (buf);
+			out.write (buf, 0, count);
+		}
+		return out.toByteArray ();
+	}
+
+	private static void zzWriteAll (FileChannel out, ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining ())
+			out.write (buf);
+	}
+}
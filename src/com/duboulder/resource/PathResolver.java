@@ -0,0 +1,120 @@
+package com.duboulder.resource;
+
+import java.util.concurrent.*;
+
+/**
+ * Applies a loader&apos;s path prefix and suffix to resource paths. The
+ * prefix is prepended (without doubling a / at the boundary) and the
+ * suffix is appended unless the path already ends with it. Optionally a
+ * leading / is removed from the result (class loaders treat it as an
+ * empty name component).<br/>
+ * <br/>
+ * Results are remembered in a bounded memo and are interned in a pool
+ * shared by all resolvers, so resolving the same path again answers the
+ * same String instance without building it again, and equal effective
+ * paths from different loaders are the same instance. This makes the
+ * effective paths cheap cache keys.<br/>
+ * <br/>
+ * A resolver is immutable and thread-safe.
+ */
+public class PathResolver {
+	private static final int	MAX_MEMO = 4096;		// resolved paths per resolver
+	private static final int	MAX_INTERNED = 65536;	// shared pool size limit
+	private static final ConcurrentHashMap<String,String> _interned =
+		new ConcurrentHashMap<String,String> ();
+
+	private final String		_prefix;
+	private final String		_suffix;
+	private final boolean		_stripSlash;
+	private final boolean		_identity;
+	private final ConcurrentHashMap<String,String> _memo;
+
+	/**
+	 * A resolver that keeps a leading / in the result
+	 * @param prefix the path prefix (may be null)
+	 * @param suffix the path suffix (may be null)
+	 */
+	public PathResolver (String prefix, String suffix) {
+		this (prefix, suffix, false);
+	}
+
+	/**
+	 * @param prefix the path prefix (may be null)
+	 * @param suffix the path suffix (may be null)
+	 * @param stripSlash true to remove a leading / from the result
+	 */
+	public PathResolver (String prefix, String suffix, boolean stripSlash) {
+		_prefix		= (prefix == null ? "" : prefix);
+		_suffix		= (suffix == null ? "" : suffix);
+		_stripSlash	= stripSlash;
+		_identity	= _prefix.isEmpty () && _suffix.isEmpty () && !stripSlash;
+		_memo		= new ConcurrentHashMap<String,String> ();
+	}
+
+	/**
+	 * Answer the pooled instance of a string
+	 * @param s the string (not null)
+	 * @return the equal string from the pool
+	 */
+	public static String Intern (String s) {
+		String pooled = _interned.get (s);
+		if (pooled != null) return pooled;
+		if (_interned.size () >= MAX_INTERNED) _interned.clear ();
+		pooled = _interned.putIfAbsent (s, s);
+		return (pooled == null ? s : pooled);
+	}
+
+	/**
+	 * The prefix
+	 * @return the prefix (never null)
+	 */
+	public String getPrefix () { return _prefix; }
+
+	/**
+	 * The suffix
+	 * @return the suffix (never null)
+	 */
+	public String getSuffix () { return _suffix; }
+
+	/**
+	 * Answer the effective path of a resource path
+	 * @param path the resource path (not null)
+	 * @return the path with the prefix and suffix applied
+	 */
+	public String resolve (String path) {
+		if (path == null)
+			throw new NullPointerException ("path is null");
+		if (_identity) return path;
+
+		String effPath = _memo.get (path);
+		if (effPath != null) return effPath;
+
+		effPath = Intern (zzBuild (path));
+		if (_memo.size () >= MAX_MEMO) _memo.clear ();
+		_memo.put (path, effPath);
+		return effPath;
+	}
+
+	private String zzBuild (String path) {
+		StringBuilder sb = new StringBuilder (
+			_prefix.length () + path.length () + _suffix.length ()
+		);
+		sb.append (_prefix);
+
+		// Prevent adding a double slash (//) at the boundary
+		// between the prefix and the path
+		if (!path.isEmpty ()) {
+			if (path.charAt (0) == '/' && _prefix.endsWith ("/"))
+				sb.append (path, 1, path.length ());
+			else
+				sb.append (path);
+		}
+
+		if (!_suffix.isEmpty () && !path.endsWith (_suffix))
+			sb.append (_suffix);
+
+		if (_stripSlash && sb.length () > 0 && sb.charAt (0) == '/')
+			return sb.substring (1);
+		return sb.toString ();
+	}
+}
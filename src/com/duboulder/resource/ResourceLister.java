@@ -0,0 +1,24 @@
+package com.duboulder.resource;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Optional capability for resource loaders that can enumerate the
+ * resources they provide. Bulk operations such as cache warm-up use
+ * this to find the resources to load.
+ */
+public interface ResourceLister {
+	/**
+	 * List the resources under a directory path. The answered paths are
+	 * in the form accepted by the loader&apos;s getInputStream, i.e. they
+	 * do not include any root path or prefix the loader applies.
+	 * @param dirPath the directory path (not null, empty for the root)
+	 * @param suffix only list resources whose path ends with this suffix
+	 * 		(may be null or empty to list all resources)
+	 * @return the sorted resource paths (never null, may be empty)
+	 * @throws IOException if the directory cannot be read
+	 */
+	List<String> listResources (String dirPath, String suffix)
+		throws IOException;
+}
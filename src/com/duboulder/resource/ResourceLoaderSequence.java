@@ -8,9 +8,32 @@ import java.util.*;
  * <br/>
  * Since each child loader may have a different response to getEffectivePath for
  * the same resource, this loader&apos;s getEffectivePath returns all of the effective
- * paths from each of the child loaders.
+ * paths from each of the child loaders.<br/>
+ * <br/>
+ * Resource listing answers the merged listings of the children that
+ * implement ResourceLister.
  */
-public class ResourceLoaderSequence implements ResourceLoader {
+public class ResourceLoaderSequence implements ResourceLoader, ResourceLister {
+	// Builds the list of tried paths only when the message is asked for
+	private static class ZNotFoundException extends ResourceNotFoundException {
+		private static final long serialVersionUID = 1;
+		private transient ResourceLoader	_loader;
+		private String						_path;
+		private String						_msg;
+
+		ZNotFoundException (ResourceLoader loader, String path) {
+			_loader = loader;
+			_path = path;
+		}
+
+		@Override
+		public synchronized String getMessage () {
+			if (_msg == null && _loader != null)
+				_msg = "Resource not found, tried:\n" + _loader.getEffectivePath (_path);
+			return _msg;
+		}
+	}
+
 	private String						_name;
 	private ResourceLoader[]			_children;
 
@@ -69,6 +92,9 @@ public class ResourceLoaderSequence implements ResourceLoader {
 	@Override
 	public String getEffectivePath (String resourcePath) {
 		zzCheckName ("resource path", resourcePath);
+		if (_children.length == 1)
+			return _children[0].getEffectivePath (resourcePath);
+
 		StringBuilder effPaths = new StringBuilder ();
 		for (ResourceLoader resLoader : _children) {
 			if (effPaths.length() > 0)
@@ -101,9 +127,36 @@ public class ResourceLoaderSequence implements ResourceLoader {
 			catch (ResourceNotFoundException e) {}
 		}
 
-		throw new ResourceNotFoundException (
-			"Resource not found, tried:\n" + getEffectivePath (resourcePath) 
-		);
+		throw new ZNotFoundException (this, resourcePath);
+	}
+
+	@Override
+	public List<String> listResources (String dirPath, String suffix)
+		throws IOException
+	{
+		if (dirPath == null)
+			throw new NullPointerException ("dir path is null");
+
+		// Children that don't have the directory are skipped, it is
+		// only an error when none of them can list it
+		TreeSet<String> paths = new TreeSet<String> ();
+		IOException err = null;
+		boolean listed = false;
+		for (ResourceLoader resLoader : _children) {
+			if (!(resLoader instanceof ResourceLister)) continue;
+			try {
+				paths.addAll (
+					((ResourceLister) resLoader).listResources (dirPath, suffix)
+				);
+				listed = true;
+			}
+			catch (IOException e) {
+				if (err == null) err = e;
+			}
+		}
+
+		if (!listed && err != null) throw err;
+		return new ArrayList<String> (paths);
 	}
 
 	@Override
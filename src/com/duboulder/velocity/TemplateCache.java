@@ -1,7 +1,9 @@
 package com.duboulder.velocity;
 
 import java.io.*;
+import java.util.*;
 import org.apache.velocity.*;
+import org.apache.velocity.runtime.parser.node.*;
 import com.duboulder.resource.*;
 
 /**
@@ -12,12 +14,24 @@ import com.duboulder.resource.*;
  * indefinite validity.<br/>
  * <br/>
  * The base loader is used to load fresh templates and to reload
- * expired ones.
+ * expired ones.<br/>
+ * <br/>
+ * When dependency tracking is on (the default), the paths of the
+ * #parse and #include directives with literal string arguments are
+ * recorded as dependencies of each loaded template. An expired
+ * template is then only kept when the files it pulls in are also
+ * unmodified, so editing a macro library or fragment refreshes the
+ * templates that use it. Directives with computed paths can&apos;t
+ * be tracked. The dependency paths are checked with the engine&apos;s
+ * resource loader (see TemplateLoaderImpl.getResourceLoader), a
+ * dependency whose time can&apos;t be found counts as modified.
  */
 public class TemplateCache
 	extends EntityCachingLoader<Template>
 	implements TemplateLoader 
 {
+	private volatile boolean	_trackDependencies = true;
+
 	/**
 	 * Initialize the cache with the specified lifetime and base loader.
 	 * @param lifetime the template lifetime in milliseconds (less than or equal to 0 means no expiration)
@@ -37,10 +51,88 @@ public class TemplateCache
 		super (name, lifetime, baseLoader);
 	}
 
+	/**
+	 * Whether #parse/#include dependencies are recorded for loaded templates
+	 * @return true if dependencies are tracked (default true)
+	 */
+	public boolean getTrackDependencies () { return _trackDependencies; }
+	public void setTrackDependencies (boolean f) { _trackDependencies = f; }
+
 	@Override
 	public Template loadTemplate(String templatePath)
 			throws ResourceNotFoundException, IOException 
 	{
 		return loadEntity (templatePath);
 	}
+
+	/**
+	 * Create a warm-up that preloads the templates in a directory of the
+	 * lister into this cache. The caller configures and starts it.
+	 * @param lister the lister for the template resources (not null)
+	 * @param directory the template directory (may be null for the root)
+	 * @return the new, unstarted warm-up
+	 */
+	public TemplateWarmUp createWarmUp (ResourceLister lister, String directory) {
+		TemplateWarmUp warmUp = new TemplateWarmUp (this, lister);
+		warmUp.setDirectory (directory);
+		return warmUp;
+	}
+
+	@Override
+	protected void zLoaded (String path, Template template) {
+		if (!_trackDependencies || template == null) return;
+		Object data = template.getData ();
+		if (!(data instanceof Node)) return;
+
+		Set<String> deps = new HashSet<String> ();
+		zzFindDependencies ((Node) data, deps);
+		setDependencies (path, deps);
+	}
+
+	@Override
+	protected boolean zDependencyModified (String depPath, long loadTime) {
+		// The #parse/#include paths are resource loader paths, without
+		// the template loader's prefix and suffix
+		EntityLoader<Template> base = getEntityLoader ();
+		ResourceLoader resLoader = (base instanceof TemplateLoaderImpl ?
+			((TemplateLoaderImpl) base).getResourceLoader () : null);
+		Date lastModified = (resLoader == null ? null : resLoader.getLastModified (depPath));
+		return lastModified == null || lastModified.getTime () > loadTime;
+	}
+
+	// Collect the literal path arguments of the #parse and #include
+	// directives in the template's syntax tree
+	private static void zzFindDependencies (Node node, Set<String> deps) {
+		if (node instanceof ASTDirective) {
+			String name = ((ASTDirective) node).getDirectiveName ();
+			if ("parse".equals (name) || "include".equals (name)) {
+				for (int i = 0; i < node.jjtGetNumChildren (); i++) {
+					Node arg = node.jjtGetChild (i);
+					if (!(arg instanceof ASTStringLiteral)) continue;
+					String path = zzLiteralPath (arg.literal ());
+					if (path != null) deps.add (path);
+				}
+			}
+		}
+
+		for (int i = 0; i < node.jjtGetNumChildren (); i++)
+			zzFindDependencies (node.jjtGetChild (i), deps);
+	}
+
+	// Strip the quotes from a string literal, answer null for
+	// interpolated strings (the path is only known at merge time)
+	private static String zzLiteralPath (String literal) {
+		if (literal == null) return null;
+		literal = literal.trim ();
+		if (literal.length () < 3) return null;
+
+		char quote = literal.charAt (0);
+		if ((quote != '"' && quote != '\'') ||
+			literal.charAt (literal.length () - 1) != quote)
+			return null;
+		String path = literal.substring (1, literal.length () - 1);
+		if (quote == '"' && path.indexOf ('$') >= 0)
+			return null;
+		return path;
+	}
 }
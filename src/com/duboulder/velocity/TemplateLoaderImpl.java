@@ -14,6 +14,9 @@ import com.duboulder.resource.*;
  * or suffix is specified, they are prepended/appended to the template
  * path before being passed to the velocity engine.<br/>
  * <br/>
+ * When created with a VelocityEngineSet, each template is loaded by the
+ * engine the set selects for it.<br/>
+ * <br/>
  * This loader does no caching.
  */
 public class TemplateLoaderImpl
@@ -23,7 +26,9 @@ public class TemplateLoaderImpl
 	private String				_prefix;
 	private ResourceLoader		_resourceLoader;
 	private String				_suffix;
+	private PathResolver		_paths;
 	private VelocityEngine		_engine;
+	private VelocityEngineSet	_engineSet;		// null when using a single engine
 
 	public TemplateLoaderImpl (
 		String name, String prefix, String suffix, VelocityEngine engine
@@ -35,15 +40,35 @@ public class TemplateLoaderImpl
 		setSuffix (suffix);
 
 		_engine = engine;
+		_engineSet = null;
 		_resourceLoader = (ResourceLoader) engine.getProperty ("BASE_RESOURCE_LOADER");
 	}
 
+	/**
+	 * Initialize to load templates with the engines in an engine set.
+	 * @param name the loader name (may be null, defaults to the class name)
+	 * @param prefix the template path prefix (may be null)
+	 * @param suffix the template path suffix (may be null)
+	 * @param engineSet the engines used for loading templates (not null)
+	 */
+	public TemplateLoaderImpl (
+		String name, String prefix, String suffix, VelocityEngineSet engineSet
+	) {
+		this (
+			name, prefix, suffix,
+			(engineSet == null ? null : engineSet.getEngine (0))
+		);
+		if (engineSet.size () > 1)
+			_engineSet = engineSet;
+	}
+
 	/**
 	 * @return the prefix string prepended to template paths before lookup (never null, may be empty)
 	 */
 	public String getPrefix () { return _prefix; }
 	public void setPrefix (String prefix) {
 		_prefix = (prefix == null ? "" : prefix);
+		_paths = new PathResolver (_prefix, _suffix);
 	}
 
 	/**
@@ -52,13 +77,27 @@ public class TemplateLoaderImpl
 	public String getSuffix () { return _suffix; }
 	public void setSuffix (String suffix) {
 		_suffix = (suffix == null ? "" : suffix);
+		_paths = new PathResolver (_prefix, _suffix);
 	}
 
 	/**
-	 * @return the velocity engine used for template loading (never null)
+	 * @return the velocity engine used for template loading, the first
+	 * 		engine when using an engine set (never null)
 	 */
 	public VelocityEngine getEngine () { return _engine; }
 
+	/**
+	 * @return the engine set used for template loading (null when
+	 * 		using a single engine)
+	 */
+	public VelocityEngineSet getEngineSet () { return _engineSet; }
+
+	/**
+	 * @return the engine&apos;s resource loader, which resolves the paths
+	 * 		of #parse and #include directives (null when the engine has none)
+	 */
+	public ResourceLoader getResourceLoader () { return _resourceLoader; }
+
 	@Override
 	public String getEffectivePath(String templatePath) {
 		String ourPath = zPath (templatePath);
@@ -82,8 +121,10 @@ public class TemplateLoaderImpl
 		throws ResourceNotFoundException, IOException 
 	{
 		String path = zPath (templatePath);
+		VelocityEngine engine =
+			(_engineSet == null ? _engine : _engineSet.selectEngine (path));
 		try {
-			return _engine.getTemplate (path, "UTF-8");
+			return engine.getTemplate (path, "UTF-8");
 		}
 		catch (NullPointerException e4) {
 			throw new IOException (
@@ -124,24 +165,6 @@ public class TemplateLoaderImpl
 		if (templatePath == null)
 			throw new NullPointerException ("template path is null");
 
-		if (_prefix.isEmpty () && _suffix.isEmpty ())
-			return templatePath;
-
-		StringBuilder sb = new StringBuilder ();
-		sb.append (_prefix);
-
-		// Prevent adding a double slash (//) at the boundary
-		// between the prefix and the template path
-		if (!templatePath.isEmpty ()) {
-			if (templatePath.charAt (0) == '/' && _prefix.endsWith ("/"))
-				sb.append (templatePath.subSequence (1, templatePath.length ()));
-			else
-				sb.append (templatePath);
-		}
-
-		if (!_suffix.isEmpty () && !templatePath.endsWith (_suffix))
-			sb.append (_suffix);
-
-		return sb.toString ();
+		return _paths.resolve (templatePath);
 	}
 }
@@ -0,0 +1,347 @@
+package com.duboulder.velocity;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import com.duboulder.resource.*;
+
+/**
+ * Start-up warm-up for a TemplateCache. The templates under a directory
+ * of a listable resource loader are parsed in parallel and stored in
+ * the cache, so the first requests after a deploy don&apos;t pay for
+ * the parsing.<br/>
+ * <br/>
+ * Resource paths are converted to template paths by removing the
+ * directory part (and the suffix when stripSuffix is true). The
+ * directory should match the prefix of the template loader behind
+ * the cache so the warmed entries are found by later lookups.<br/>
+ * <br/>
+ * Typical use is to call start during service initialization and
+ * await before reporting the service as ready. A failed template
+ * does not stop the warm-up, it is recorded in the results.
+ */
+public class TemplateWarmUp {
+	/**
+	 * The outcome of warming up a single template.
+	 */
+	public static class Result {
+		private final String		_path;
+		private final long			_elapsedNanos;
+		private final Throwable		_error;
+
+		Result (String path, long elapsedNanos, Throwable error) {
+			_path			= path;
+			_elapsedNanos	= elapsedNanos;
+			_error			= error;
+		}
+
+		/**
+		 * @return the template path used as the cache key (never null)
+		 */
+		public String getPath () { return _path; }
+
+		/**
+		 * @return the load and parse time in nanoseconds
+		 */
+		public long getElapsedNanos () { return _elapsedNanos; }
+
+		/**
+		 * @return the load and parse time in milliseconds
+		 */
+		public long getElapsedMillis () { return _elapsedNanos / 1000000L; }
+
+		/**
+		 * @return the load error or null if the template was cached
+		 */
+		public Throwable getError () { return _error; }
+
+		/**
+		 * @return true if the template was loaded and cached
+		 */
+		public boolean isOk () { return _error == null; }
+	}
+
+	private TemplateCache						_cache;
+	private ResourceLister						_lister;
+	private String								_directory;
+	private String								_suffix;
+	private boolean								_stripSuffix;
+	private int									_threads;
+	private volatile long						_startTime;
+	private volatile long						_endTime;
+	private volatile CountDownLatch				_done;
+	private volatile AtomicInteger				_remaining;
+	private volatile AtomicReferenceArray<Result>	_results;
+
+	/**
+	 * Initialize for warming the cache with the templates the lister
+	 * provides. The defaults are: the root directory, a .vm suffix,
+	 * no suffix stripping and one thread per available processor.
+	 * @param cache the cache to populate (not null)
+	 * @param lister the lister for the template resources (not null)
+	 */
+	public TemplateWarmUp (TemplateCache cache, ResourceLister lister) {
+		if (cache == null)
+			throw new NullPointerException ("cache is null");
+		if (lister == null)
+			throw new NullPointerException ("lister is null");
+		_cache			= cache;
+		_lister			= lister;
+		_directory		= "";
+		_suffix			= ".vm";
+		_stripSuffix	= false;
+		_threads		= Runtime.getRuntime ().availableProcessors ();
+	}
+
+	/**
+	 * The resource directory containing the templates
+	 * @return the directory path (never null, empty for the root)
+	 */
+	public String getDirectory () { return _directory; }
+	public void setDirectory (String directory) {
+		zzCheckNotStarted ();
+		_directory = (directory == null ? "" : directory.trim ());
+	}
+
+	/**
+	 * The suffix that identifies template resources
+	 * @return the suffix (never null, may be empty)
+	 */
+	public String getSuffix () { return _suffix; }
+	public void setSuffix (String suffix) {
+		zzCheckNotStarted ();
+		_suffix = (suffix == null ? "" : suffix.trim ());
+	}
+
+	/**
+	 * Whether the suffix is removed when forming template paths. Set
+	 * this when the template loader appends the suffix itself and
+	 * templates are requested without it.
+	 * @return true if the suffix is removed
+	 */
+	public boolean getStripSuffix () { return _stripSuffix; }
+	public void setStripSuffix (boolean f) {
+		zzCheckNotStarted ();
+		_stripSuffix = f;
+	}
+
+	/**
+	 * The number of threads used for parsing templates
+	 * @return the thread count (&gt;= 1)
+	 */
+	public int getThreads () { return _threads; }
+	public void setThreads (int threads) {
+		zzCheckNotStarted ();
+		if (threads < 1)
+			throw new IllegalArgumentException ("threads < 1");
+		_threads = threads;
+	}
+
+	/**
+	 * List the templates and start loading them in the background. This
+	 * can only be called once.
+	 * @throws IOException if the template directory cannot be listed
+	 */
+	public synchronized void start () throws IOException {
+		zzCheckNotStarted ();
+
+		// Only mark the warm-up as started once the listing succeeded,
+		// so a failed start can be retried
+		long startTime = System.currentTimeMillis ();
+		List<String> resPaths = _lister.listResources (_directory, _suffix);
+		_startTime = startTime;
+		final int n = resPaths.size ();
+		_results = new AtomicReferenceArray<Result> (n);
+		_done = new CountDownLatch (n);
+		_remaining = new AtomicInteger (n);
+		if (n == 0) {
+			_endTime = System.currentTimeMillis ();
+			return;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool (
+			Math.min (_threads, n),
+			new ThreadFactory () {
+				private final AtomicInteger _count = new AtomicInteger ();
+				@Override
+				public Thread newThread (Runnable r) {
+					Thread t = new Thread (
+						r, "TemplateWarmUp-" + _count.incrementAndGet ()
+					);
+					t.setDaemon (true);
+					return t;
+				}
+			}
+		);
+
+		for (int i = 0; i < n; i++) {
+			final int index = i;
+			final String path = zzTemplatePath (resPaths.get (i));
+			pool.execute (new Runnable () {
+				@Override
+				public void run () {
+					long start = System.nanoTime ();
+					Throwable error = null;
+					try {
+						_cache.preloadEntity (path);
+					}
+					catch (Throwable t) {
+						error = t;
+					}
+					_results.set (
+						index, new Result (path, System.nanoTime () - start, error)
+					);
+					zzDone ();
+				}
+			});
+		}
+		pool.shutdown ();
+	}
+
+	/**
+	 * Wait for the warm-up to complete.
+	 * @throws InterruptedException if the wait is interrupted
+	 */
+	public void await () throws InterruptedException {
+		zzCheckStarted ();
+		_done.await ();
+	}
+
+	/**
+	 * Wait at most the timeout for the warm-up to complete.
+	 * @param timeout the maximum time to wait
+	 * @param unit the timeout unit (not null)
+	 * @return true if the warm-up completed
+	 * @throws InterruptedException if the wait is interrupted
+	 */
+	public boolean await (long timeout, TimeUnit unit) throws InterruptedException {
+		zzCheckStarted ();
+		return _done.await (timeout, unit);
+	}
+
+	/**
+	 * Start the warm-up and wait for it to complete.
+	 * @return the results for all templates in path order (never null)
+	 * @throws IOException if the template directory cannot be listed
+	 * @throws InterruptedException if the wait is interrupted
+	 */
+	public List<Result> run () throws IOException, InterruptedException {
+		start ();
+		await ();
+		return getResults ();
+	}
+
+	/**
+	 * @return true if all of the templates have been processed
+	 */
+	public boolean isComplete () {
+		return _done != null && _done.getCount () == 0;
+	}
+
+	/**
+	 * The total warm-up time, or the time so far if the warm-up
+	 * hasn&apos;t completed.
+	 * @return the elapsed time in milliseconds (0 if not started)
+	 */
+	public long getElapsedMillis () {
+		if (_startTime == 0) return 0;
+		long end = (isComplete () ? _endTime : System.currentTimeMillis ());
+		return end - _startTime;
+	}
+
+	/**
+	 * The results for the templates processed so far.
+	 * @return the results in path order (never null)
+	 */
+	public List<Result> getResults () {
+		List<Result> results = new ArrayList<Result> ();
+		if (_results == null) return results;
+		for (int i = 0; i < _results.length (); i++) {
+			Result r = _results.get (i);
+			if (r != null) results.add (r);
+		}
+		return results;
+	}
+
+	/**
+	 * The results for the templates that failed to load so far.
+	 * @return the failed results in path order (never null)
+	 */
+	public List<Result> getFailures () {
+		List<Result> failures = new ArrayList<Result> ();
+		for (Result r : getResults ()) {
+			if (!r.isOk ()) failures.add (r);
+		}
+		return failures;
+	}
+
+	/**
+	 * A printable summary: the counts and times, then one line
+	 * for each failure.
+	 * @return the report text (never null)
+	 */
+	public String getReport () {
+		List<Result> results = getResults ();
+		List<Result> failures = getFailures ();
+		long totalNanos = 0;
+		Result slowest = null;
+		for (Result r : results) {
+			totalNanos += r.getElapsedNanos ();
+			if (slowest == null || r.getElapsedNanos () > slowest.getElapsedNanos ())
+				slowest = r;
+		}
+
+		StringBuilder sb = new StringBuilder ();
+		sb.append ("Template warm-up for ").append (_cache.getName ()).append (": ");
+		sb.append (results.size ()).append (" templates, ");
+		sb.append (failures.size ()).append (" failed, ");
+		sb.append (getElapsedMillis ()).append ("ms elapsed, ");
+		sb.append (totalNanos / 1000000L).append ("ms loading");
+		if (slowest != null) {
+			sb.append ("\n   slowest: ").append (slowest.getPath ());
+			sb.append (" (").append (slowest.getElapsedMillis ()).append ("ms)");
+		}
+		for (Result r : failures) {
+			String msg = r.getError ().getMessage ();
+			sb.append ("\n   FAILED ").append (r.getPath ()).append (": ");
+			sb.append (msg == null ? r.getError ().getClass ().getName () : msg);
+		}
+		return sb.toString ();
+	}
+
+	private void zzDone () {
+		// End time is set before the last count down so it is
+		// visible to threads returning from await
+		if (_remaining.decrementAndGet () == 0)
+			_endTime = System.currentTimeMillis ();
+		_done.countDown ();
+	}
+
+	// Remove the directory part (and optionally the suffix) from a
+	// listed resource path
+	private String zzTemplatePath (String resPath) {
+		String path = resPath;
+		String dir = _directory;
+		while (dir.startsWith ("/"))
+			dir = dir.substring (1);
+		if (!dir.isEmpty () && !dir.endsWith ("/"))
+			dir += "/";
+		if (path.startsWith (dir))
+			path = path.substring (dir.length ());
+
+		if (_stripSuffix && !_suffix.isEmpty () && path.endsWith (_suffix))
+			path = path.substring (0, path.length () - _suffix.length ());
+		return path;
+	}
+
+	private void zzCheckNotStarted () {
+		if (_startTime != 0)
+			throw new IllegalStateException ("warm-up already started");
+	}
+
+	private void zzCheckStarted () {
+		if (_done == null)
+			throw new IllegalStateException ("warm-up not started");
+	}
+}
@@ -0,0 +1,68 @@
+package com.duboulder.velocity;
+
+import org.apache.velocity.app.*;
+
+/**
+ * A fixed set of identically configured velocity engines. Template loads
+ * are spread over the engines so the engines&apos; internal resource
+ * manager locks are not shared by every loading thread. An engine is
+ * selected by the hash of the template path, or by the current thread
+ * when shardByThread is true.<br/>
+ * <br/>
+ * The set does no caching. Use a single caching TemplateLoader (e.g.
+ * TemplateCache) above a TemplateLoaderImpl created with the set, so
+ * all of the engines share one cache of parsed templates.
+ */
+public class VelocityEngineSet {
+	private VelocityEngine[]		_engines;
+	private boolean					_shardByThread;
+
+	/**
+	 * Initialize with the engines to use.
+	 * @param engines the engines (not null, not empty, no null elements)
+	 * @param shardByThread true to select engines by thread instead of by path
+	 */
+	public VelocityEngineSet (VelocityEngine[] engines, boolean shardByThread) {
+		if (engines == null)
+			throw new NullPointerException ("engines is null");
+		if (engines.length == 0)
+			throw new IllegalArgumentException ("engines is empty");
+		for (VelocityEngine engine : engines) {
+			if (engine == null)
+				throw new NullPointerException ("engines has a null element");
+		}
+		_engines = engines.clone ();
+		_shardByThread = shardByThread;
+	}
+
+	/**
+	 * @return the number of engines in the set (&gt; 0)
+	 */
+	public int size () { return _engines.length; }
+
+	/**
+	 * @return true if engines are selected by thread, false if by path
+	 */
+	public boolean getShardByThread () { return _shardByThread; }
+
+	/**
+	 * Answer an engine by index
+	 * @param i the engine index (0 &lt;= i &lt; size ())
+	 * @return the engine (never null)
+	 */
+	public VelocityEngine getEngine (int i) { return _engines[i]; }
+
+	/**
+	 * Select the engine to use for loading a template
+	 * @param templatePath the template path (not null)
+	 * @return the engine (never null)
+	 */
+	public VelocityEngine selectEngine (String templatePath) {
+		if (_engines.length == 1)
+			return _engines[0];
+
+		long key = _shardByThread ?
+			Thread.currentThread ().getId () : templatePath.hashCode ();
+		return _engines[(int) ((key & 0x7fffffffL) % _engines.length)];
+	}
+}
@@ -3,6 +3,9 @@
  */
 package com.duboulder.velocity;
 
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import org.apache.velocity.runtime.RuntimeServices;
 import org.apache.velocity.runtime.log.*;
 import com.duboulder.log.*;
@@ -10,13 +13,60 @@ import com.duboulder.log.*;
 /**
  * This class implements the org.apache.velocity.runtime.RuntimeServices.LogChute
  * interface. Log requests are converted to LogEvents which are placed on the 
- * specified LogEventQueue.
+ * specified LogEventQueue.<br/>
+ * <br/>
+ * Requests below the minimum level are discarded before an event is
+ * created. The source of an event (a LogSrcException, which captures a
+ * stack trace) is only created for events at or above the source level;
+ * events below it have a null source. Both levels can be changed while
+ * the logger is in use. The defaults pass all levels with sources.<br/>
+ * <br/>
+ * When created with a buffer size, events are handed to a bounded buffer
+ * and a daemon thread moves them to the event queue in batches, so
+ * rendering threads never wait on the queue. Events are dropped (and
+ * counted) when the buffer is full. Call close to stop the thread after
+ * moving the buffered events.
  */
 public class VelocityEventLogger implements LogChute {
+	private static final int		BATCH_SIZE = 256;
+
 	private LogEventQueue			_eventQueue;
+	private volatile int			_minLevel;
+	private volatile int			_srcLevel;
+	private BlockingQueue<LogEvent>	_pending;		// null for direct handoff
+	private Thread					_dispatcher;
+	private volatile boolean		_closed;
+	private AtomicLong				_dropCount;
+	private final Object			_dispatchLock = new Object ();
 
 	public VelocityEventLogger (LogEventQueue eventQueue) {
 		setEventQueue (eventQueue);
+		_minLevel	= TRACE_ID;
+		_srcLevel	= TRACE_ID;
+		_pending	= null;
+		_dropCount	= new AtomicLong ();
+	}
+
+	/**
+	 * Initialize for batched handoff to the event queue through a buffer
+	 * of the specified size.
+	 * @param eventQueue the event queue (not null)
+	 * @param bufferSize the maximum number of buffered events (&gt; 0)
+	 */
+	public VelocityEventLogger (LogEventQueue eventQueue, int bufferSize) {
+		this (eventQueue);
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException ("bufferSize <= 0");
+		_pending = new ArrayBlockingQueue<LogEvent> (bufferSize);
+		_dispatcher = new Thread (
+			new Runnable () {
+				@Override
+				public void run () { zzDispatch (); }
+			},
+			"VelocityEventLogger-" + hashCode ()
+		);
+		_dispatcher.setDaemon (true);
+		_dispatcher.start ();
 	}
 
 	/**
@@ -29,6 +79,33 @@ public class VelocityEventLogger implements LogChute {
 		_eventQueue = eventQueue;
 	}
 
+	/**
+	 * The lowest level that is logged, lower levels are discarded
+	 * @return the minimum level (never null)
+	 */
+	public VelocityLogLevels getMinLevel () { return VelocityLogLevels.mapInt (_minLevel); }
+	public void setMinLevel (VelocityLogLevels level) {
+		if (level == null)
+			throw new NullPointerException ("level is null");
+		_minLevel = level.getId ();
+	}
+
+	/**
+	 * The lowest level for which the event source is captured
+	 * @return the source capture level (never null)
+	 */
+	public VelocityLogLevels getSourceLevel () { return VelocityLogLevels.mapInt (_srcLevel); }
+	public void setSourceLevel (VelocityLogLevels level) {
+		if (level == null)
+			throw new NullPointerException ("level is null");
+		_srcLevel = level.getId ();
+	}
+
+	/**
+	 * @return the number of events dropped because the buffer was full
+	 */
+	public long getDropCount () { return _dropCount.get (); }
+
 	@Override
 	public void init (RuntimeServices ri) throws Exception {
 		// NOOP
@@ -36,24 +113,62 @@ public class VelocityEventLogger implements LogChute {
 
 	@Override
 	public boolean isLevelEnabled (int level) {
-		// Do event filtering in the queue processors
-		return true;
+		return level >= _minLevel;
 	}
 
 	@Override
 	public void log (int level, String msg) {
-		_eventQueue.add (new LogEventImpl (
-			convertLogLevel (level), new LogSrcException (1), msg
+		if (level < _minLevel) return;
+		zzSend (new LogEventImpl (
+			convertLogLevel (level),
+			(level >= _srcLevel ? new LogSrcException (1) : null),
+			msg
 		));
 	}
 
 	@Override
 	public void log (int level, String msg, Throwable exception) {
-		_eventQueue.add (new LogEventImpl (
-			convertLogLevel (level), new LogSrcException (1), msg, exception
+		if (level < _minLevel) return;
+		zzSend (new LogEventImpl (
+			convertLogLevel (level),
+			(level >= _srcLevel ? new LogSrcException (1) : null),
+			msg, exception
 		));
 	}
 
+	/**
+	 * Move any buffered events to the event queue. This is a NOOP when
+	 * there is no buffer.
+	 */
+	public void flush () {
+		if (_pending == null) return;
+		List<LogEvent> batch = new ArrayList<LogEvent> ();
+		synchronized (_dispatchLock) {
+			while (_pending.drainTo (batch, BATCH_SIZE) > 0) {
+				for (LogEvent event : batch)
+					_eventQueue.add (event);
+				batch.clear ();
+			}
+		}
+	}
+
+	/**
+	 * Stop the dispatch thread and move the buffered events to the
+	 * event queue. Later events are sent directly to the event queue.
+	 */
+	public void close () {
+		if (_pending == null || _closed) return;
+		_closed = true;
+		_dispatcher.interrupt ();
+		try {
+			_dispatcher.join ();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread ().interrupt ();
+		}
+		flush ();
+	}
+
 	public static LogLevel convertLogLevel (int velocityLevel) {
 		switch (velocityLevel) {
 			case WARN_ID: 	return LogLevel.WARN;
@@ -64,4 +179,36 @@ public class VelocityEventLogger implements LogChute {
 		}
 		return LogLevel.ERROR;
 	}
+
+	private void zzSend (LogEvent event) {
+		if (_pending == null || _closed) {
+			_eventQueue.add (event);
+			return;
+		}
+		if (!_pending.offer (event))
+			_dropCount.incrementAndGet ();
+		else if (_closed) {
+			// close may have done its final flush before the offer
+			flush ();
+		}
+	}
+
+	private void zzDispatch () {
+		List<LogEvent> batch = new ArrayList<LogEvent> (BATCH_SIZE);
+		while (!_closed) {
+			try {
+				batch.add (_pending.take ());
+			}
+			catch (InterruptedException e) {
+				break;
+			}
+
+			synchronized (_dispatchLock) {
+				_pending.drainTo (batch, BATCH_SIZE - 1);
+				for (LogEvent event : batch)
+					_eventQueue.add (event);
+			}
+			batch.clear ();
+		}
+	}
 }
@@ -1,15 +1,49 @@
 package com.duboulder.velocity;
 
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import org.apache.velocity.runtime.*;
 import org.apache.velocity.runtime.log.*;
 
 /**
- * Logger that sends messages of all levels to the provided print stream.
+ * Logger that sends messages to the provided print stream. Messages below
+ * the minimum level (default TRACE_ID, i.e. all levels) are discarded
+ * before any formatting is done.<br/>
+ * <br/>
+ * In asynchronous mode the messages are placed in a bounded buffer and
+ * a daemon writer thread formats them and writes them to the stream in
+ * batches. The stream is flushed when the buffer has been emptied, and
+ * at least once per flush interval while messages keep arriving. When
+ * the buffer is full, the logging thread either waits for space
+ * (backpressure) or the message is dropped and counted.
  */
 public class VelocityPSLogger implements LogChute {
-	private PrintStream		_os;
-	
+	private static class ZEntry {
+		final VelocityLogLevels	level;
+		final String			message;
+		final Throwable			t;
+
+		ZEntry (VelocityLogLevels level, String message, Throwable t) {
+			this.level		= level;
+			this.message	= message;
+			this.t			= t;
+		}
+	}
+
+	private static final int		BATCH_SIZE = 256;
+
+	private PrintStream				_os;
+	private volatile int			_minLevel;
+	private BlockingQueue<ZEntry>	_buffer;		// null for synchronous mode
+	private boolean					_dropWhenFull;
+	private long					_flushInterval;
+	private Thread					_writer;
+	private volatile boolean		_closed;
+	private AtomicLong				_dropCount;
+	private final Object			_writeLock = new Object ();
+
     /**
      * Initialize useing the specified print stream as the destination
      * @param os the destination stream (not null)
@@ -18,19 +52,72 @@ public class VelocityPSLogger implements LogChute {
 		if (os == null)
 			throw new NullPointerException ("os is null");
 		_os = os;
+		_minLevel = VelocityLogLevels.TRACE_ID.getId ();
+		_dropCount = new AtomicLong ();
+	}
+
+	/**
+	 * Initialize in asynchronous mode.
+	 * @param os the destination stream (not null)
+	 * @param bufferSize the maximum number of buffered messages (&gt; 0)
+	 * @param dropWhenFull true to drop messages when the buffer is full,
+	 * 		false to make the logging thread wait for space
+	 * @param flushInterval the maximum time in milliseconds between
+	 * 		stream flushes while messages are being written (&gt; 0)
+	 */
+	public VelocityPSLogger (
+		PrintStream os, int bufferSize, boolean dropWhenFull, long flushInterval
+	) {
+		this (os);
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException ("bufferSize <= 0");
+		if (flushInterval <= 0)
+			throw new IllegalArgumentException ("flushInterval <= 0");
+		_buffer			= new ArrayBlockingQueue<ZEntry> (bufferSize);
+		_dropWhenFull	= dropWhenFull;
+		_flushInterval	= flushInterval;
+		_writer = new Thread (
+			new Runnable () {
+				@Override
+				public void run () { zzWriteLoop (); }
+			},
+			"VelocityPSLogger-" + hashCode ()
+		);
+		_writer.setDaemon (true);
+		_writer.start ();
 	}
 
+	/**
+	 * The lowest level that is written, lower levels are discarded
+	 * @return the minimum level (never null)
+	 */
+	public VelocityLogLevels getMinLevel () { return VelocityLogLevels.mapInt (_minLevel); }
+	public void setMinLevel (VelocityLogLevels level) {
+		if (level == null)
+			throw new NullPointerException ("level is null");
+		_minLevel = level.getId ();
+	}
+
+	/**
+	 * @return the number of messages dropped because the buffer was full
+	 */
+	public long getDropCount () { return _dropCount.get (); }
+
 	@Override
 	public void init(RuntimeServices rs) throws Exception {
 	}
 
 	@Override
 	public boolean isLevelEnabled(int level) {
-		return true;
+		return level >= _minLevel;
 	}
 
 	@Override
 	public void log (int level, String message, Throwable t) {
+		if (level < _minLevel) return;
+		if (_buffer != null && zzEnqueue (new ZEntry (VelocityLogLevels.mapInt (level), message, t)))
+			return;
+
 		log (level, message);
 		if (t == null) return;
 		t.printStackTrace (_os);
@@ -38,10 +125,120 @@ public class VelocityPSLogger implements LogChute {
 
 	@Override
 	public void log (int level, String message) {
+		if (level < _minLevel) return;
 		VelocityLogLevels ll = VelocityLogLevels.mapInt (level);
+		if (_buffer != null && zzEnqueue (new ZEntry (ll, message, null)))
+			return;
+
 		_os.println (
 			ll.getPrefix() + " " +
 			(message == null ? "" : message)
 		);
 	}
+
+	/**
+	 * Stop the writer thread after it has written the buffered
+	 * messages. Later messages are written synchronously.
+	 */
+	public void close () {
+		if (_buffer == null || _closed) return;
+		_closed = true;
+		_writer.interrupt ();
+		try {
+			_writer.join ();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread ().interrupt ();
+		}
+		// Messages buffered while the writer was stopping
+		zzDrain ();
+	}
+
+	// Buffer a message, answer false when the logger is closed and the
+	// message must be written by the caller
+	private boolean zzEnqueue (ZEntry entry) {
+		if (_closed) return false;
+
+		if (_dropWhenFull) {
+			if (!_buffer.offer (entry)) {
+				_dropCount.incrementAndGet ();
+				return true;
+			}
+		}
+		else {
+			try {
+				// Wait for space, the writer may stop while waiting
+				while (!_buffer.offer (entry, _flushInterval, TimeUnit.MILLISECONDS)) {
+					if (_closed) zzDrain ();
+				}
+			}
+			catch (InterruptedException e) {
+				_dropCount.incrementAndGet ();
+				Thread.currentThread ().interrupt ();
+				return true;
+			}
+		}
+
+		// close may have stopped the writer before the message was buffered
+		if (_closed) zzDrain ();
+		return true;
+	}
+
+	// Write the buffered messages on the calling thread (after close)
+	private void zzDrain () {
+		List<ZEntry> batch = new ArrayList<ZEntry> (BATCH_SIZE);
+		StringBuilder sb = new StringBuilder ();
+		synchronized (_writeLock) {
+			while (_buffer.drainTo (batch, BATCH_SIZE) > 0)
+				zzWrite (batch, sb);
+			_os.flush ();
+		}
+	}
+
+	// Format and write a batch of messages, clearing the batch
+	private void zzWrite (List<ZEntry> batch, StringBuilder sb) {
+		for (ZEntry entry : batch) {
+			sb.append (entry.level.getPrefix ()).append (' ');
+			if (entry.message != null)
+				sb.append (entry.message);
+			sb.append (System.lineSeparator ());
+			if (entry.t != null) {
+				StringWriter sw = new StringWriter ();
+				entry.t.printStackTrace (new PrintWriter (sw));
+				sb.append (sw.getBuffer ());
+			}
+		}
+		if (sb.length () > 0)
+			_os.print (sb);
+		batch.clear ();
+		sb.setLength (0);
+	}
+
+	private void zzWriteLoop () {
+		List<ZEntry> batch = new ArrayList<ZEntry> (BATCH_SIZE);
+		StringBuilder sb = new StringBuilder ();
+		long lastFlush = System.currentTimeMillis ();
+
+		while (true) {
+			try {
+				ZEntry entry = _buffer.poll (_flushInterval, TimeUnit.MILLISECONDS);
+				if (entry != null) batch.add (entry);
+			}
+			catch (InterruptedException e) {
+				// close () - write what is left and stop
+			}
+			_buffer.drainTo (batch, BATCH_SIZE - batch.size ());
+			synchronized (_writeLock) {
+				zzWrite (batch, sb);
+			}
+
+			long now = System.currentTimeMillis ();
+			if (_buffer.isEmpty () || now - lastFlush >= _flushInterval) {
+				_os.flush ();
+				lastFlush = now;
+			}
+
+			if (_closed && _buffer.isEmpty ()) break;
+		}
+	}
 }
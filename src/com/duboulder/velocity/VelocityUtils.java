@@ -95,4 +95,32 @@ public class VelocityUtils {
 		}
 		return ve;
 	}
+
+	/**
+	 * Create a set of identically configured velocity engines. Each
+	 * engine is created by CreateEngine with the same arguments, so the
+	 * logger and resource loader instances are shared by all of them (the
+	 * resource loader is initialized once by each engine).
+	 * @param configProps the base-line properties (may be null)
+	 * @param logger the LogChute instance for logging (may be null)
+	 * @param resLoader the velocity template resource loader (may be null)
+	 * @param count the number of engines, values &lt;= 0 mean one per
+	 * 		available processor
+	 * @param shardByThread true to select engines by thread instead of by
+	 * 		template path
+	 * @return the engine set
+	 */
+	public static VelocityEngineSet CreateEngineSet (
+		Properties configProps, LogChute logger,
+		org.apache.velocity.runtime.resource.loader.ResourceLoader resLoader,
+		int count, boolean shardByThread
+	) {
+		if (count <= 0)
+			count = Runtime.getRuntime ().availableProcessors ();
+
+		VelocityEngine[] engines = new VelocityEngine[count];
+		for (int i = 0; i < count; i++)
+			engines[i] = CreateEngine (configProps, logger, resLoader);
+		return new VelocityEngineSet (engines, shardByThread);
+	}
 }